@@ -0,0 +1,220 @@
+import java.util.Arrays;
+
+/**
+ * Result of an aggregation query, see
+ * {@link Api#aggregate(TimeIndex, TimeIndex, String, long, String[])}: the
+ * count, minimum, maximum and mean of one field per window of time. Windows
+ * are {@link #getInterval()} milliseconds long and aligned to multiples of
+ * it since midnight (an hourly window starts on the hour). Only values within
+ * the queried time range count, so the first and last window may only cover
+ * part of their interval. Windows without data are left out.
+ *
+ * The aggregation is filled in one streaming pass: values are added in time
+ * order and folded into the window they belong to right away, so memory
+ * grows with the number of windows, never with the number of records.
+ *
+ * @author Weinan Jimmy Michael
+ */
+public class Aggregation implements Renderable {
+
+    // Aggregate functions
+    public static final String FUNCTION_COUNT = "count";
+    public static final String FUNCTION_MIN = "min";
+    public static final String FUNCTION_MAX = "max";
+    public static final String FUNCTION_MEAN = "mean";
+
+    // All aggregate functions, in the order they are rendered
+    public static final String[] FUNCTIONS = {FUNCTION_COUNT, FUNCTION_MIN, FUNCTION_MAX, FUNCTION_MEAN};
+
+    // Initial number of windows room is made for
+    private static final int INITIAL_CAPACITY = 16;
+
+    // Field aggregated, and whether it is an integer field
+    private final String fieldName;
+    private final boolean integer;
+
+    // Length of a window in milliseconds
+    private final long interval;
+
+    // Functions to render
+    private final String[] functions;
+
+    // Start time of each window, ascending, and the aggregates of it
+    private long[] windowStarts;
+    private long[] counts;
+    private double[] mins;
+    private double[] maxs;
+    private double[] sums;
+
+    // Number of windows
+    private int size;
+
+    /**
+     * Create an empty aggregation.
+     *
+     * @param fieldName field aggregated
+     * @param integer whether it is an integer field
+     * @param interval length of a window in milliseconds, must be positive
+     * @param functions functions to render, any of {@link #FUNCTIONS}; empty for all
+     */
+    public Aggregation(String fieldName, boolean integer, long interval, String[] functions) {
+        if (interval <= 0)
+            throw new RuntimeException("Aggregation interval must be positive: " + interval);
+        for (String function : functions) {
+            if (!Arrays.asList(FUNCTIONS).contains(function))
+                throw new RuntimeException("Unrecognized aggregate function: " + function);
+        }
+        this.fieldName = fieldName;
+        this.integer = integer;
+        this.interval = interval;
+        this.functions = functions.length == 0 ? FUNCTIONS : functions;
+        this.windowStarts = new long[INITIAL_CAPACITY];
+        this.counts = new long[INITIAL_CAPACITY];
+        this.mins = new double[INITIAL_CAPACITY];
+        this.maxs = new double[INITIAL_CAPACITY];
+        this.sums = new double[INITIAL_CAPACITY];
+        this.size = 0;
+    }
+
+    /**
+     * Add one value.
+     *
+     * @param time timestamp of the value
+     * @param value the value
+     */
+    public void add(long time, double value) {
+        this.add(time, 1L, value, value, value);
+    }
+
+    /**
+     * Add the aggregates of a number of values that all fall in the same
+     * window, e.g. a pre-computed rollup.
+     *
+     * @param time timestamp of (any of) the values
+     * @param count number of values
+     * @param min their minimum
+     * @param max their maximum
+     * @param sum their sum
+     */
+    public void add(long time, long count, double min, double max, double sum) {
+        if (count <= 0)
+            return;
+        int window = this.windowOf(time - Math.floorMod(time, this.interval));
+        if (this.counts[window] == 0) {
+            this.mins[window] = min;
+            this.maxs[window] = max;
+        } else {
+            this.mins[window] = Math.min(this.mins[window], min);
+            this.maxs[window] = Math.max(this.maxs[window], max);
+        }
+        this.counts[window] += count;
+        this.sums[window] += sum;
+    }
+
+    /**
+     * Find the window starting at the given time, adding it if there is none.
+     * Values come in time order, so this is nearly always the last window.
+     *
+     * @param start window start time
+     * @return position of the window
+     */
+    private int windowOf(long start) {
+        if (this.size > 0 && this.windowStarts[this.size - 1] == start)
+            return this.size - 1;
+
+        int found = this.size > 0 && this.windowStarts[this.size - 1] < start
+                ? -this.size - 1
+                : Arrays.binarySearch(this.windowStarts, 0, this.size, start);
+        if (found >= 0)
+            return found;
+
+        int window = -found - 1;
+        if (this.size == this.windowStarts.length) {
+            this.windowStarts = Arrays.copyOf(this.windowStarts, this.size * 2);
+            this.counts = Arrays.copyOf(this.counts, this.size * 2);
+            this.mins = Arrays.copyOf(this.mins, this.size * 2);
+            this.maxs = Arrays.copyOf(this.maxs, this.size * 2);
+            this.sums = Arrays.copyOf(this.sums, this.size * 2);
+        }
+        int moved = this.size - window;
+        System.arraycopy(this.windowStarts, window, this.windowStarts, window + 1, moved);
+        System.arraycopy(this.counts, window, this.counts, window + 1, moved);
+        System.arraycopy(this.mins, window, this.mins, window + 1, moved);
+        System.arraycopy(this.maxs, window, this.maxs, window + 1, moved);
+        System.arraycopy(this.sums, window, this.sums, window + 1, moved);
+        this.windowStarts[window] = start;
+        this.counts[window] = 0L;
+        this.sums[window] = 0d;
+        this.size++;
+        return window;
+    }
+
+    public String getFieldName() {
+        return fieldName;
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public TimeIndex getWindowStart(int window) {
+        return new TimeIndex(this.windowStarts[window]);
+    }
+
+    public long getCount(int window) {
+        return this.counts[window];
+    }
+
+    public double getMin(int window) {
+        return this.mins[window];
+    }
+
+    public double getMax(int window) {
+        return this.maxs[window];
+    }
+
+    public double getMean(int window) {
+        return this.sums[window] / this.counts[window];
+    }
+
+    /**
+     * User facing representation, one line per window: its start time and
+     * the requested aggregates of the field.
+     *
+     * @return
+     */
+    @Override
+    public String render() {
+        StringBuilder sb = new StringBuilder();
+        for (int window = 0; window < this.size; window++) {
+            if (window > 0)
+                sb.append('\n');
+            sb.append(this.getWindowStart(window).render());
+            for (String function : this.functions) {
+                sb.append(' ').append(this.fieldName).append('.').append(function).append('=');
+                switch (function) {
+                    case FUNCTION_COUNT:
+                        sb.append(this.getCount(window));
+                        break;
+                    case FUNCTION_MIN:
+                        sb.append(this.render(this.getMin(window)));
+                        break;
+                    case FUNCTION_MAX:
+                        sb.append(this.render(this.getMax(window)));
+                        break;
+                    default:
+                        sb.append(String.format("%.3f", this.getMean(window)));
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private String render(double value) {
+        return this.integer ? Long.toString((long) value) : Float.toString((float) value);
+    }
+}
@@ -19,6 +19,19 @@ public interface Api {
         return DefaultApi.getInstance();
     }
 
+    /**
+     * Get the default implementation of this API querying the data of one
+     * of the configured sources (see {@link Config#getSources()}).
+     * @param source name of the source
+     * @return the default implementation {@link DefaultApi} for that source
+     */
+    static Api defaultApi(String source) {
+        int id = Config.getInstance().getSourceId(source);
+        if (id < 0)
+            throw new RuntimeException("Unrecognized source: " + source);
+        return DefaultApi.getInstance(id);
+    }
+
     /**
      * "Summary Data" function. The {@link Summary} object returned mainly keeps track
      * of four things:
@@ -34,9 +47,22 @@ public interface Api {
      */
     Summary getSummary();
 
+    /**
+     * Open a session that searches for the occurrences that some field has some
+     * value. Each session keeps its own position, so many of them can be used
+     * concurrently; see {@link SearchSession#next()}.
+     *
+     * @param fieldName name of the field to search
+     * @param value expected value of that field in search
+     * @return the search session
+     */
+    SearchSession openSearch(String fieldName, String value);
+
     /**
      * Search for the first (when called first time) or next (when called after first
-     * time) occurrence that some field has some value. Subsequent searches after the
+     * time) occurrence that some field has some value, using a default session
+     * shared by all callers of this method. Searching for different criteria
+     * starts a new default session. Subsequent searches after the
      * first search are based on the previous search. To start from the beginning again,
      * call {@link #endSearch()} and call {@link #search(String, String)} again. If the
      * search didn't find any matches in the rest of the files, it will throw {@link NoMoreDataException}.
@@ -54,7 +80,20 @@ public interface Api {
     void endSearch();
 
     /**
-     * Read all the data that is packable into a page. Users can call this method again
+     * Open a session that reads the data of a time range page by page. Each session
+     * keeps its own position, so many of them can be used concurrently; see
+     * {@link ReadSession#next()}.
+     *
+     * @param startTime timestamp for the start time
+     * @param endTime timestamp for the end time, if less than start time, the session is empty
+     * @param fields list of fields to return
+     * @return the read session
+     */
+    ReadSession openRead(TimeIndex startTime, TimeIndex endTime, String[] fields);
+
+    /**
+     * Read all the data that is packable into a page, using a default session
+     * shared by all callers of this method. Users can call this method again
      * to see if there's more data. If the user calls this method again after all data
      * has been returned, it will throw {@link NoMoreDataException}
      *
@@ -71,6 +110,35 @@ public interface Api {
      */
     void endRead();
 
+    /**
+     * Open a session that queries the data of a time range for the records
+     * matching a condition, page by page; see {@link QuerySession#next()}. The
+     * condition compares fields with values and joins the comparisons with
+     * AND and OR, see {@link Filter}.
+     *
+     * @param startTime timestamp for the start time
+     * @param endTime timestamp for the end time, if less than start time, the session is empty
+     * @param filter condition the records must match
+     * @param fields list of fields to return
+     * @return the query session
+     */
+    QuerySession openQuery(TimeIndex startTime, TimeIndex endTime, Filter filter, String[] fields);
+
+    /**
+     * Aggregate a field over a time range, per window of the given interval:
+     * the count, minimum, maximum and mean of its values in every window,
+     * read from the rollup tiers where they fit (see {@link Rollup}) and
+     * computed in a single pass over the data elsewhere. See {@link Aggregation}.
+     *
+     * @param startTime timestamp for the start time
+     * @param endTime timestamp for the end time, if less than start time, the aggregation is empty
+     * @param fieldName name of the field to aggregate
+     * @param interval length of a window in milliseconds
+     * @param functions aggregate functions to return, any of {@link Aggregation#FUNCTIONS}; empty for all
+     * @return the aggregates per window
+     */
+    Aggregation aggregate(TimeIndex startTime, TimeIndex endTime, String fieldName, long interval, String[] functions);
+
     /**
      * Exception thrown when the api did not find any more
      * occurrence by the search criteria
@@ -0,0 +1,111 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary layout of a data bucket file. A bucket starts with a header that
+ * describes the schema the records were written with, followed by fixed-width
+ * records. Every field is a 4 byte big-endian int or float, written in schema
+ * order, so the n-th record of a bucket always starts at
+ * {@code headerSize + n * recordWidth} and no string parsing is required to
+ * read it back.
+ *
+ * Header layout:
+ * - magic (int) "A6B1"
+ * - version (short)
+ * - number of fields (short)
+ * - for each field: type (byte), name length (short), name (UTF-8 bytes)
+ *
+ * @author Weinan Jimmy Michael
+ */
+public class BucketFormat {
+
+    // Magic number at the start of every bucket file, "A6B1" in ASCII
+    public static final int MAGIC = 0x41364231;
+
+    // Current version of the layout
+    public static final short VERSION = 1;
+
+    // Every field (integer or float) takes 4 bytes
+    public static final int FIELD_WIDTH = 4;
+
+    // Type codes written in the header
+    public static final byte TYPE_CODE_INT = 0;
+    public static final byte TYPE_CODE_FLOAT = 1;
+
+    private BucketFormat() {}
+
+    /**
+     * Encode the header for the given schema.
+     *
+     * @param schema a {@link LinkedList} of {@link Config.Schema}
+     * @return header bytes
+     */
+    public static byte[] header(LinkedList schema) {
+        // First pass to determine the header size
+        int size = 4 + 2 + 2;
+        for (Object o : schema) {
+            Config.Schema field = (Config.Schema) o;
+            size += 1 + 2 + field.getName().getBytes(StandardCharsets.UTF_8).length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putShort((short) schema.getSize());
+        for (Object o : schema) {
+            Config.Schema field = (Config.Schema) o;
+            byte[] name = field.getName().getBytes(StandardCharsets.UTF_8);
+            buffer.put(typeCode(field.getType()));
+            buffer.putShort((short) name.length);
+            buffer.put(name);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Validate the header at the start of the buffer against the given schema
+     * and return its size, i.e. the offset of the first record. Throws
+     * {@link RuntimeException} when the header is malformed or was written
+     * with a different schema.
+     *
+     * @param buffer bucket content, positioned at the start of the file
+     * @param schema a {@link LinkedList} of {@link Config.Schema}
+     * @return size of the header in bytes
+     */
+    public static int readHeader(ByteBuffer buffer, LinkedList schema) {
+        byte[] expected = header(schema);
+        if (buffer.remaining() < expected.length)
+            throw new RuntimeException("Bucket header truncated");
+
+        int start = buffer.position();
+        for (int i = 0; i < expected.length; i++) {
+            if (buffer.get(start + i) != expected[i]) {
+                if (buffer.getInt(start) != MAGIC)
+                    throw new RuntimeException("Not a data bucket");
+                throw new RuntimeException("Bucket schema does not match configured schema");
+            }
+        }
+        return expected.length;
+    }
+
+    /**
+     * Width of one record in bytes for the given schema.
+     *
+     * @param schema a {@link LinkedList} of {@link Config.Schema}
+     * @return record width
+     */
+    public static int recordWidth(LinkedList schema) {
+        return schema.getSize() * FIELD_WIDTH;
+    }
+
+    private static byte typeCode(String type) {
+        switch (type) {
+            case Config.Schema.TYPE_INT:
+                return TYPE_CODE_INT;
+            case Config.Schema.TYPE_FLOAT:
+                return TYPE_CODE_FLOAT;
+            default:
+                throw new IllegalArgumentException("Unrecognized type: " + type);
+        }
+    }
+}
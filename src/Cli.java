@@ -32,13 +32,15 @@ public class Cli {
         System.out.println("1. Get Summary Data");
         System.out.println("2. Search Data");
         System.out.println("3. Read Data");
+        System.out.println("4. Query Data");
+        System.out.println("5. Aggregate Data");
         System.out.println();
         System.out.print("Action: ");
         try {
             Scanner reader = new Scanner(System.in);  // Reading from System.in
             int n = reader.nextInt(); // Scans the next token of the input as an int.
 
-            // Ensure input is either 1, 2, or 3.
+            // Ensure input is one of 1 to 5.
             switch(n) {
             case 1:
                 getSummaryData();
@@ -49,6 +51,12 @@ public class Cli {
             case 3:
                 readData();
                 break;
+            case 4:
+                queryData();
+                break;
+            case 5:
+                aggregateData();
+                break;
             default:
                 System.out.println("Invalid input");
                 break;
@@ -73,16 +81,21 @@ public class Cli {
      */
     private void searchData() {
         try {
-            System.out.print("Field name: ");
             Scanner reader = new Scanner(System.in);
+            Api api = selectApi(reader);
+            if (null == api)
+                return;
+
+            System.out.print("Field name: ");
             String fieldName = reader.nextLine();
 
             System.out.print("value: ");
             String value = reader.nextLine();
 
             // Continue searching for the next instance until there are no more.
+            SearchSession session = api.openSearch(fieldName, value);
             while (true) {
-                System.out.println(Api.defaultApi().search(fieldName, value).render());
+                System.out.println(session.next().render());
                 System.out.println("Press [Enter] to continue");
                 reader.nextLine();
             }
@@ -99,6 +112,9 @@ public class Cli {
     private void readData() {
         try {
             Scanner reader = new Scanner(System.in);
+            Api api = selectApi(reader);
+            if (null == api)
+                return;
 
             System.out.print("Start time hour: ");
             int startHour = reader.nextInt();
@@ -124,28 +140,93 @@ public class Cli {
 
             String[] measurements = measurementsString.split(",");
 
-            LinkedList schema = Config.getInstance().getSchema();
+            Config.CompiledSchema schema = Config.getInstance().getCompiledSchema();
+
+            // Make sure at least one measurement given was valid.
+            boolean atLeastOneMeasurementIsValid = Arrays.stream(measurements)
+            .anyMatch(data -> schema.ordinalOf(data) >= 0);
 
-            // Get array of valid schema names
-            int numberOfSchemaValues = schema.getSize();
-            String[] validValues = new String[numberOfSchemaValues];
-            for (int i = 0; i < numberOfSchemaValues; i++) {
-                Config.Schema schemaValue = (Config.Schema) schema.get(i);
-                validValues[i] = schemaValue.getName();
+            if (atLeastOneMeasurementIsValid) {
+                // Read and display a page of data until there are no more data points.
+                ReadSession session = api.openRead(
+                        TimeIndex.of(startHour, startMinute, startSecond),
+                        TimeIndex.of(endHour,endMinute,endSecond),
+                        measurements
+                );
+                while (true) {
+                    System.out.println(session.next().render());
+                    System.out.println("Press [Enter] to continue");
+                    reader.nextLine();
+                }
+            } else {
+                System.out.println("No valid measurements given.");
             }
+        } catch (InputMismatchException ex) {
+            System.out.println("Invalid input.");
+        } catch (Api.NoMoreDataException ex) {
+            System.out.println("End of data points.");
+        }
+    }
+
+    /**
+     * The command-line interface for querying data by a condition
+     */
+    private void queryData() {
+        try {
+            Scanner reader = new Scanner(System.in);
+            Api api = selectApi(reader);
+            if (null == api)
+                return;
+
+            System.out.print("Start time hour: ");
+            int startHour = reader.nextInt();
+
+            System.out.print("Minute: ");
+            int startMinute = reader.nextInt();
+
+            System.out.print("Second: ");
+            float startSecond = reader.nextFloat();
+
+            System.out.print("End time hour: ");
+            int endHour = reader.nextInt();
+
+            System.out.print("Minute: ");
+            int endMinute = reader.nextInt();
+
+            System.out.print("Second: ");
+            float endSecond = reader.nextFloat();
+            reader.nextLine(); // Consume the \n in \r\n so it doesn't skip the next nextLine() call.
+
+            System.out.print("Condition (e.g. temperature > 30 AND pressure < 1000): ");
+            String condition = reader.nextLine();
+
+            Filter filter;
+            try {
+                filter = Filter.parse(condition);
+            } catch (RuntimeException ex) {
+                System.out.println(ex.getMessage());
+                return;
+            }
+
+            System.out.print("Measurements (comma separated, no spaces): ");
+            String[] measurements = reader.nextLine().split(",");
+
+            Config.CompiledSchema schema = Config.getInstance().getCompiledSchema();
 
             // Make sure at least one measurement given was valid.
             boolean atLeastOneMeasurementIsValid = Arrays.stream(measurements)
-            .anyMatch(data -> contains(validValues, data));
+            .anyMatch(data -> schema.ordinalOf(data) >= 0);
 
             if (atLeastOneMeasurementIsValid) {
-                // Read and display a page of data until there are no more data points.
+                // Query and display a page of matches until there are no more.
+                QuerySession session = api.openQuery(
+                        TimeIndex.of(startHour, startMinute, startSecond),
+                        TimeIndex.of(endHour, endMinute, endSecond),
+                        filter,
+                        measurements
+                );
                 while (true) {
-                    System.out.println(Api.defaultApi().read(
-                            TimeIndex.of(startHour, startMinute, startSecond),
-                            TimeIndex.of(endHour,endMinute,endSecond),
-                            measurements
-                    ).render());
+                    System.out.println(session.next().render());
                     System.out.println("Press [Enter] to continue");
                     reader.nextLine();
                 }
@@ -160,13 +241,87 @@ public class Cli {
     }
 
     /**
-     * Method to check if a string is in a string array.
+     * The command-line interface for aggregating data per interval
+     */
+    private void aggregateData() {
+        try {
+            Scanner reader = new Scanner(System.in);
+            Api api = selectApi(reader);
+            if (null == api)
+                return;
+
+            System.out.print("Start time hour: ");
+            int startHour = reader.nextInt();
+
+            System.out.print("Minute: ");
+            int startMinute = reader.nextInt();
+
+            System.out.print("Second: ");
+            float startSecond = reader.nextFloat();
+
+            System.out.print("End time hour: ");
+            int endHour = reader.nextInt();
+
+            System.out.print("Minute: ");
+            int endMinute = reader.nextInt();
+
+            System.out.print("Second: ");
+            float endSecond = reader.nextFloat();
+            reader.nextLine(); // Consume the \n in \r\n so it doesn't skip the next nextLine() call.
+
+            System.out.print("Field name: ");
+            String fieldName = reader.nextLine();
+
+            System.out.print("Interval in seconds: ");
+            float intervalSeconds = reader.nextFloat();
+            reader.nextLine();
+
+            System.out.print("Functions (comma separated, no spaces, empty for count,min,max,mean): ");
+            String functionsString = reader.nextLine().trim();
+            String[] functions = functionsString.isEmpty() ? new String[0] : functionsString.split(",");
+
+            Aggregation aggregation = api.aggregate(
+                    TimeIndex.of(startHour, startMinute, startSecond),
+                    TimeIndex.of(endHour, endMinute, endSecond),
+                    fieldName,
+                    (long) (intervalSeconds * 1000),
+                    functions
+            );
+            if (aggregation.getSize() == 0)
+                System.out.println("No data points.");
+            else
+                System.out.println(aggregation.render());
+        } catch (InputMismatchException ex) {
+            System.out.println("Invalid input.");
+        } catch (RuntimeException ex) {
+            System.out.println(ex.getMessage());
+        }
+    }
+
+    /**
+     * Ask which source to work on when more than one is configured (see
+     * {@link Config#getSources()}). The summary covers all sources, so only
+     * the other actions ask.
+     *
+     * @param reader
+     * @return the API of the chosen source, the first source by default, or null if there is no such source
      */
-    private static boolean contains(String[] strArray, String searchValue) {
-        for(String s: strArray) {
-            if(s.equals(searchValue))
-                return true;
+    private Api selectApi(Scanner reader) {
+        Config.Source[] sources = Config.getInstance().getSources();
+        if (sources.length < 2)
+            return Api.defaultApi();
+
+        String[] names = new String[sources.length];
+        for (int i = 0; i < sources.length; i++)
+            names[i] = sources[i].getName();
+        System.out.print("Source (" + String.join(",", names) + ", empty for " + names[0] + "): ");
+        String name = reader.nextLine().trim();
+        if (name.isEmpty())
+            return Api.defaultApi();
+        if (Config.getInstance().getSourceId(name) < 0) {
+            System.out.println("Unrecognized source: " + name);
+            return null;
         }
-        return false;
+        return Api.defaultApi(name);
     }
 }
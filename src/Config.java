@@ -1,3 +1,4 @@
+import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.Arrays;
@@ -23,12 +24,141 @@ public class Config {
     // Config file key for the array detailing the name and type of the fields in the data
     public static final String KEY_SCHEMA = "schema";
 
+    // Optional config key for the data servers to collect from, as comma separated name@host:port
+    // entries. Without it, data is collected from localhost at the configured port.
+    public static final String KEY_SOURCES = "sources";
+
+    // Optional config key for the number of buffered bytes per data bucket before flushing to disk
+    public static final String KEY_FLUSH_BYTES = "flush_bytes";
+
+    // Optional config key for the number of buffered records per data bucket before flushing to disk
+    public static final String KEY_FLUSH_RECORDS = "flush_records";
+
+    // Optional config key for the longest time (in milliseconds) data may stay buffered before flushing
+    public static final String KEY_FLUSH_INTERVAL = "flush_interval_ms";
+
+    // Optional config key for the number of records between two sparse time index entries
+    public static final String KEY_INDEX_INTERVAL = "index_interval";
+
+    // Optional config key for the most frames decoded and written as one batch
+    public static final String KEY_INGEST_BATCH_SIZE = "ingest_batch_size";
+
+    // Optional config key for the number of batches that may wait between receiver and writer
+    public static final String KEY_INGEST_QUEUE_CAPACITY = "ingest_queue_capacity";
+
+    // Optional config key for what the receiver does when the writer falls behind, "block" or "drop"
+    public static final String KEY_INGEST_OVERFLOW = "ingest_overflow";
+
+    // Ingest overflow values
+    public static final String INGEST_OVERFLOW_BLOCK = "block";
+    public static final String INGEST_OVERFLOW_DROP = "drop";
+
+    // Optional config key for how data buckets are read, either "mmap" or "heap"
+    public static final String KEY_READ_MODE = "read_mode";
+
+    // Read mode values
+    public static final String READ_MODE_MMAP = "mmap";
+    public static final String READ_MODE_HEAP = "heap";
+
+    // Optional config key for how long (in milliseconds) to capture data for, 0 captures until stopped
+    public static final String KEY_RECORD_TIME = "record_time_ms";
+
+    // Optional config key for whether to serve queries while data is being collected, "true" or "false"
+    public static final String KEY_QUERY_DURING_INGEST = "query_during_ingest";
+
+    // Optional config key for the number of data buckets a search scans at the same time
+    public static final String KEY_SEARCH_PARALLELISM = "search_parallelism";
+
+    // Optional config key for how far a float field may be off a searched value and still match it
+    public static final String KEY_SEARCH_FLOAT_TOLERANCE = "search_float_tolerance";
+
+    // Optional config key for the integer fields to keep an inverted value index of, comma separated
+    public static final String KEY_INVERTED_INDEX = "inverted_index";
+
+    // Optional config key for the resolutions (in milliseconds) of the rollup tiers kept while ingesting,
+    // comma separated, or "off"
+    public static final String KEY_ROLLUP_TIERS = "rollup_tiers_ms";
+    public static final String ROLLUP_TIERS_OFF = "off";
+
+    // Optional config key for how time is split into data buckets: "count", "duration" or "adaptive"
+    public static final String KEY_BUCKET_MODE = "bucket_mode";
+
+    // Bucket mode values
+    public static final String BUCKET_MODE_COUNT = "count";
+    public static final String BUCKET_MODE_DURATION = "duration";
+    public static final String BUCKET_MODE_ADAPTIVE = "adaptive";
+
+    // Optional config key for the number of data buckets in "count" bucket mode
+    public static final String KEY_BUCKET_COUNT = "bucket_count";
+
+    // Optional config key for the time (in milliseconds) one data bucket covers in "duration" bucket mode
+    public static final String KEY_BUCKET_DURATION = "bucket_duration_ms";
+
+    // Optional config key for the number of records after which "adaptive" bucket mode starts a new bucket
+    public static final String KEY_BUCKET_MAX_RECORDS = "bucket_max_records";
+
+    // Optional config key for what the collector echoes to the console: "all", "sample", "status" or "off"
+    public static final String KEY_ECHO_MODE = "echo_mode";
+
+    // Echo mode values
+    public static final String ECHO_MODE_ALL = "all";
+    public static final String ECHO_MODE_SAMPLE = "sample";
+    public static final String ECHO_MODE_STATUS = "status";
+    public static final String ECHO_MODE_OFF = "off";
+
+    // Optional config key for echoing every N-th frame in "sample" echo mode
+    public static final String KEY_ECHO_SAMPLE_EVERY = "echo_sample_every";
+
+    // Optional config key for the time (in milliseconds) between two status lines in "status" echo mode
+    public static final String KEY_ECHO_STATUS_INTERVAL = "echo_status_interval_ms";
+
+    // Defaults for the optional flush policy keys
+    public static final int DEFAULT_FLUSH_BYTES = 64 * 1024;
+    public static final int DEFAULT_FLUSH_RECORDS = 1024;
+    public static final long DEFAULT_FLUSH_INTERVAL = 1000L;
+
+    // Default for the optional ingest batch size key
+    public static final int DEFAULT_INGEST_BATCH_SIZE = 256;
+
+    // Default for the optional ingest queue capacity key
+    public static final int DEFAULT_INGEST_QUEUE_CAPACITY = 64;
+
+    // Default for the optional sparse time index key
+    public static final int DEFAULT_INDEX_INTERVAL = 64;
+
+    // Default for the optional record time key, five minutes
+    public static final long DEFAULT_RECORD_TIME = 5 * 60 * 1000L;
+
+    // Default for the optional search parallelism key, scan one bucket at a time
+    public static final int DEFAULT_SEARCH_PARALLELISM = 1;
+
+    // Default for the optional search float tolerance key, exact match
+    public static final float DEFAULT_SEARCH_FLOAT_TOLERANCE = 0f;
+
+    // Default for the optional rollup tiers key: a second, a minute and an hour
+    public static final long[] DEFAULT_ROLLUP_TIERS = {1000L, 60 * 1000L, 60 * 60 * 1000L};
+
+    // Defaults for the optional bucket layout keys
+    public static final int DEFAULT_BUCKET_COUNT = 10;
+    public static final long DEFAULT_BUCKET_DURATION = 60 * 1000L;
+    public static final int DEFAULT_BUCKET_MAX_RECORDS = 100000;
+
+    // Defaults for the optional console echo keys
+    public static final int DEFAULT_ECHO_SAMPLE_EVERY = 100;
+    public static final long DEFAULT_ECHO_STATUS_INTERVAL = 1000L;
+
     // Singleton instance of the configuration
     private static Config instance;
 
     // Internal storage for the parsed configuration
     private final Map source;
 
+    // The schema compiled into array based lookups
+    private final CompiledSchema compiledSchema;
+
+    // The data servers to collect from, the position is the source id
+    private final Source[] sources;
+
     /**
      * Read the configuration file, perform some validation and parse
      * it into internal storage.
@@ -63,9 +193,9 @@ public class Config {
                         Arrays.stream(kv[1].split(";")).forEach(s1 -> {
                             String[] namesTypesAndUnits = s1.split(":");
                             if (namesTypesAndUnits.length == 2) {
-                                list.add(new Schema(namesTypesAndUnits[0], namesTypesAndUnits[1], null), list.getSize());
+                                list.addLast(new Schema(namesTypesAndUnits[0], namesTypesAndUnits[1], null));
                             } else if (namesTypesAndUnits.length == 3) {
-                                list.add(new Schema(namesTypesAndUnits[0], namesTypesAndUnits[1], namesTypesAndUnits[2]), list.getSize());
+                                list.addLast(new Schema(namesTypesAndUnits[0], namesTypesAndUnits[1], namesTypesAndUnits[2]));
                             } else {
                                 throw new RuntimeException("Illegal schema format: " + s1);
                             }
@@ -80,6 +210,181 @@ public class Config {
                         localSource.put(KEY_OUTPUT_DIR, kv[1]);
                         break;
 
+                    // sources
+                    case KEY_SOURCES:
+                        LinkedList sources = new LinkedList();
+                        for (String entry : kv[1].split(",")) {
+                            Source source = Source.parse(entry);
+                            for (Object o : sources) {
+                                if (((Source) o).getName().equals(source.getName()))
+                                    throw new RuntimeException("Duplicate source name: " + source.getName());
+                            }
+                            sources.addLast(source);
+                        }
+                        localSource.put(KEY_SOURCES, sources);
+                        break;
+
+                    // flush_bytes
+                    case KEY_FLUSH_BYTES:
+                        if (Integer.parseInt(kv[1]) < 1)
+                            throw new RuntimeException("Flush bytes must be positive: " + kv[1]);
+                        localSource.put(KEY_FLUSH_BYTES, Integer.parseInt(kv[1]));
+                        break;
+
+                    // flush_records, where 0 disables the record count trigger
+                    case KEY_FLUSH_RECORDS:
+                        if (Integer.parseInt(kv[1]) < 0)
+                            throw new RuntimeException("Flush records must not be negative: " + kv[1]);
+                        localSource.put(KEY_FLUSH_RECORDS, Integer.parseInt(kv[1]));
+                        break;
+
+                    // flush_interval_ms
+                    case KEY_FLUSH_INTERVAL:
+                        if (Long.parseLong(kv[1]) < 1)
+                            throw new RuntimeException("Flush interval must be positive: " + kv[1]);
+                        localSource.put(KEY_FLUSH_INTERVAL, Long.parseLong(kv[1]));
+                        break;
+
+                    // index_interval
+                    case KEY_INDEX_INTERVAL:
+                        if (Integer.parseInt(kv[1]) < 1)
+                            throw new RuntimeException("Index interval must be positive: " + kv[1]);
+                        localSource.put(KEY_INDEX_INTERVAL, Integer.parseInt(kv[1]));
+                        break;
+
+                    // ingest_batch_size
+                    case KEY_INGEST_BATCH_SIZE:
+                        if (Integer.parseInt(kv[1]) < 1)
+                            throw new RuntimeException("Ingest batch size must be positive: " + kv[1]);
+                        localSource.put(KEY_INGEST_BATCH_SIZE, Integer.parseInt(kv[1]));
+                        break;
+
+                    // ingest_queue_capacity
+                    case KEY_INGEST_QUEUE_CAPACITY:
+                        if (Integer.parseInt(kv[1]) < 1)
+                            throw new RuntimeException("Ingest queue capacity must be positive: " + kv[1]);
+                        localSource.put(KEY_INGEST_QUEUE_CAPACITY, Integer.parseInt(kv[1]));
+                        break;
+
+                    // ingest_overflow
+                    case KEY_INGEST_OVERFLOW:
+                        if (!INGEST_OVERFLOW_BLOCK.equals(kv[1]) && !INGEST_OVERFLOW_DROP.equals(kv[1]))
+                            throw new RuntimeException("Unrecognized ingest overflow: " + kv[1]);
+                        localSource.put(KEY_INGEST_OVERFLOW, kv[1]);
+                        break;
+
+                    // read_mode
+                    case KEY_READ_MODE:
+                        if (!READ_MODE_MMAP.equals(kv[1]) && !READ_MODE_HEAP.equals(kv[1]))
+                            throw new RuntimeException("Unrecognized read mode: " + kv[1]);
+                        localSource.put(KEY_READ_MODE, kv[1]);
+                        break;
+
+                    // record_time_ms
+                    case KEY_RECORD_TIME:
+                        if (Long.parseLong(kv[1]) < 0)
+                            throw new RuntimeException("Record time must not be negative: " + kv[1]);
+                        localSource.put(KEY_RECORD_TIME, Long.parseLong(kv[1]));
+                        break;
+
+                    // query_during_ingest
+                    case KEY_QUERY_DURING_INGEST:
+                        if (!"true".equals(kv[1]) && !"false".equals(kv[1]))
+                            throw new RuntimeException("Unrecognized query during ingest: " + kv[1]);
+                        localSource.put(KEY_QUERY_DURING_INGEST, Boolean.parseBoolean(kv[1]));
+                        break;
+
+                    // search_parallelism
+                    case KEY_SEARCH_PARALLELISM:
+                        if (Integer.parseInt(kv[1]) < 1)
+                            throw new RuntimeException("Search parallelism must be positive: " + kv[1]);
+                        localSource.put(KEY_SEARCH_PARALLELISM, Integer.parseInt(kv[1]));
+                        break;
+
+                    // search_float_tolerance
+                    case KEY_SEARCH_FLOAT_TOLERANCE:
+                        if (!(Float.parseFloat(kv[1]) >= 0f) || Float.isInfinite(Float.parseFloat(kv[1])))
+                            throw new RuntimeException("Search float tolerance must be a non-negative number: " + kv[1]);
+                        localSource.put(KEY_SEARCH_FLOAT_TOLERANCE, Float.parseFloat(kv[1]));
+                        break;
+
+                    // rollup_tiers_ms
+                    case KEY_ROLLUP_TIERS:
+                        if (ROLLUP_TIERS_OFF.equals(kv[1])) {
+                            localSource.put(KEY_ROLLUP_TIERS, new long[0]);
+                            break;
+                        }
+                        String[] tiers = kv[1].split(",");
+                        long[] resolutions = new long[tiers.length];
+                        for (int i = 0; i < tiers.length; i++) {
+                            resolutions[i] = Long.parseLong(tiers[i]);
+                            if (resolutions[i] < 1)
+                                throw new RuntimeException("Rollup tier must be positive: " + tiers[i]);
+                        }
+                        Arrays.sort(resolutions);
+                        for (int i = 1; i < resolutions.length; i++) {
+                            if (resolutions[i] == resolutions[i - 1])
+                                throw new RuntimeException("Duplicate rollup tier: " + resolutions[i]);
+                        }
+                        localSource.put(KEY_ROLLUP_TIERS, resolutions);
+                        break;
+
+                    // inverted_index, checked against the schema once it is compiled
+                    case KEY_INVERTED_INDEX:
+                        localSource.put(KEY_INVERTED_INDEX, kv[1].split(","));
+                        break;
+
+                    // bucket_mode
+                    case KEY_BUCKET_MODE:
+                        if (!BUCKET_MODE_COUNT.equals(kv[1]) && !BUCKET_MODE_DURATION.equals(kv[1])
+                                && !BUCKET_MODE_ADAPTIVE.equals(kv[1]))
+                            throw new RuntimeException("Unrecognized bucket mode: " + kv[1]);
+                        localSource.put(KEY_BUCKET_MODE, kv[1]);
+                        break;
+
+                    // bucket_count
+                    case KEY_BUCKET_COUNT:
+                        if (Integer.parseInt(kv[1]) < 1)
+                            throw new RuntimeException("Bucket count must be positive: " + kv[1]);
+                        localSource.put(KEY_BUCKET_COUNT, Integer.parseInt(kv[1]));
+                        break;
+
+                    // bucket_duration_ms
+                    case KEY_BUCKET_DURATION:
+                        if (Long.parseLong(kv[1]) < 1)
+                            throw new RuntimeException("Bucket duration must be positive: " + kv[1]);
+                        localSource.put(KEY_BUCKET_DURATION, Long.parseLong(kv[1]));
+                        break;
+
+                    // bucket_max_records
+                    case KEY_BUCKET_MAX_RECORDS:
+                        if (Integer.parseInt(kv[1]) < 1)
+                            throw new RuntimeException("Bucket max records must be positive: " + kv[1]);
+                        localSource.put(KEY_BUCKET_MAX_RECORDS, Integer.parseInt(kv[1]));
+                        break;
+
+                    // echo_mode
+                    case KEY_ECHO_MODE:
+                        if (!ECHO_MODE_ALL.equals(kv[1]) && !ECHO_MODE_SAMPLE.equals(kv[1])
+                                && !ECHO_MODE_STATUS.equals(kv[1]) && !ECHO_MODE_OFF.equals(kv[1]))
+                            throw new RuntimeException("Unrecognized echo mode: " + kv[1]);
+                        localSource.put(KEY_ECHO_MODE, kv[1]);
+                        break;
+
+                    // echo_sample_every
+                    case KEY_ECHO_SAMPLE_EVERY:
+                        if (Integer.parseInt(kv[1]) < 1)
+                            throw new RuntimeException("Echo sample interval must be positive: " + kv[1]);
+                        localSource.put(KEY_ECHO_SAMPLE_EVERY, Integer.parseInt(kv[1]));
+                        break;
+
+                    // echo_status_interval_ms
+                    case KEY_ECHO_STATUS_INTERVAL:
+                        if (Long.parseLong(kv[1]) < 1)
+                            throw new RuntimeException("Echo status interval must be positive: " + kv[1]);
+                        localSource.put(KEY_ECHO_STATUS_INTERVAL, Long.parseLong(kv[1]));
+                        break;
+
                     // invalid config key
                     default:
                         throw new RuntimeException("Unrecognized config key: " + kv[0]);
@@ -106,6 +411,32 @@ public class Config {
             throw new RuntimeException("Config object missing key '" + KEY_OUTPUT_DIR + "'");
         else
             this.source = source;
+
+        // Compile the schema once, so per-record code never looks fields up by name
+        this.compiledSchema = new CompiledSchema(this.getSchema());
+
+        // Only integer fields can have an inverted value index
+        for (String field : this.getInvertedIndexFields()) {
+            int ordinal = this.compiledSchema.ordinalOf(field);
+            if (ordinal < 0 || this.compiledSchema.getType(ordinal) != CompiledSchema.TYPE_INT)
+                throw new RuntimeException("Inverted index field must be an integer schema field: " + field);
+        }
+
+        // Without configured sources, collect from the single local server into
+        // the output directory itself
+        if (source.containsKey(KEY_SOURCES)) {
+            LinkedList sources = (LinkedList) source.get(KEY_SOURCES);
+            this.sources = new Source[sources.getSize()];
+            int i = 0;
+            for (Object o : sources)
+                this.sources[i++] = (Source) o;
+        } else {
+            this.sources = new Source[] {new Source("", "localhost", this.getPort())};
+        }
+
+        // A fixed number of buckets needs a fixed record time to divide
+        if (this.getRecordTime() == 0 && BUCKET_MODE_COUNT.equals(this.getBucketMode()))
+            throw new RuntimeException("Unbounded capture (record_time_ms=0) needs bucket_mode duration or adaptive");
     }
 
     public Map getSource() {
@@ -124,6 +455,131 @@ public class Config {
         return (LinkedList) this.source.get(KEY_SCHEMA);
     }
 
+    public CompiledSchema getCompiledSchema() {
+        return compiledSchema;
+    }
+
+    /**
+     * Get the data servers to collect from. The position of a source in the
+     * array is its id. There is always at least one source.
+     *
+     * @return
+     */
+    public Source[] getSources() {
+        return sources;
+    }
+
+    /**
+     * Get the id of the source with the given name.
+     *
+     * @param name source name
+     * @return the source id, or -1 if there is no such source
+     */
+    public int getSourceId(String name) {
+        for (int i = 0; i < this.sources.length; i++) {
+            if (this.sources[i].getName().equals(name))
+                return i;
+        }
+        return -1;
+    }
+
+    public int getFlushBytes() {
+        return this.source.containsKey(KEY_FLUSH_BYTES) ? (Integer) this.source.get(KEY_FLUSH_BYTES) : DEFAULT_FLUSH_BYTES;
+    }
+
+    public int getFlushRecords() {
+        return this.source.containsKey(KEY_FLUSH_RECORDS) ? (Integer) this.source.get(KEY_FLUSH_RECORDS) : DEFAULT_FLUSH_RECORDS;
+    }
+
+    public long getFlushInterval() {
+        return this.source.containsKey(KEY_FLUSH_INTERVAL) ? (Long) this.source.get(KEY_FLUSH_INTERVAL) : DEFAULT_FLUSH_INTERVAL;
+    }
+
+    public int getIndexInterval() {
+        return this.source.containsKey(KEY_INDEX_INTERVAL) ? (Integer) this.source.get(KEY_INDEX_INTERVAL) : DEFAULT_INDEX_INTERVAL;
+    }
+
+    public int getIngestBatchSize() {
+        return this.source.containsKey(KEY_INGEST_BATCH_SIZE) ? (Integer) this.source.get(KEY_INGEST_BATCH_SIZE) : DEFAULT_INGEST_BATCH_SIZE;
+    }
+
+    public int getIngestQueueCapacity() {
+        return this.source.containsKey(KEY_INGEST_QUEUE_CAPACITY) ? (Integer) this.source.get(KEY_INGEST_QUEUE_CAPACITY) : DEFAULT_INGEST_QUEUE_CAPACITY;
+    }
+
+    public String getIngestOverflow() {
+        return this.source.containsKey(KEY_INGEST_OVERFLOW) ? (String) this.source.get(KEY_INGEST_OVERFLOW) : INGEST_OVERFLOW_BLOCK;
+    }
+
+    public String getReadMode() {
+        return this.source.containsKey(KEY_READ_MODE) ? (String) this.source.get(KEY_READ_MODE) : READ_MODE_MMAP;
+    }
+
+    public long getRecordTime() {
+        return this.source.containsKey(KEY_RECORD_TIME) ? (Long) this.source.get(KEY_RECORD_TIME) : DEFAULT_RECORD_TIME;
+    }
+
+    public boolean isQueryDuringIngest() {
+        return this.source.containsKey(KEY_QUERY_DURING_INGEST) && (Boolean) this.source.get(KEY_QUERY_DURING_INGEST);
+    }
+
+    public int getSearchParallelism() {
+        return this.source.containsKey(KEY_SEARCH_PARALLELISM) ? (Integer) this.source.get(KEY_SEARCH_PARALLELISM) : DEFAULT_SEARCH_PARALLELISM;
+    }
+
+    /**
+     * Get the resolutions of the rollup tiers, ascending.
+     *
+     * @return
+     */
+    public long[] getRollupTiers() {
+        return this.source.containsKey(KEY_ROLLUP_TIERS) ? (long[]) this.source.get(KEY_ROLLUP_TIERS) : DEFAULT_ROLLUP_TIERS;
+    }
+
+    public String[] getInvertedIndexFields() {
+        return this.source.containsKey(KEY_INVERTED_INDEX) ? (String[]) this.source.get(KEY_INVERTED_INDEX) : new String[0];
+    }
+
+    public float getSearchFloatTolerance() {
+        return this.source.containsKey(KEY_SEARCH_FLOAT_TOLERANCE) ? (Float) this.source.get(KEY_SEARCH_FLOAT_TOLERANCE) : DEFAULT_SEARCH_FLOAT_TOLERANCE;
+    }
+
+    /**
+     * Get the bucket mode. Without a fixed record time the buckets cannot be
+     * a fixed division of it, so unbounded capture defaults to duration mode.
+     *
+     * @return
+     */
+    public String getBucketMode() {
+        if (this.source.containsKey(KEY_BUCKET_MODE))
+            return (String) this.source.get(KEY_BUCKET_MODE);
+        return this.getRecordTime() == 0 ? BUCKET_MODE_DURATION : BUCKET_MODE_COUNT;
+    }
+
+    public int getBucketCount() {
+        return this.source.containsKey(KEY_BUCKET_COUNT) ? (Integer) this.source.get(KEY_BUCKET_COUNT) : DEFAULT_BUCKET_COUNT;
+    }
+
+    public long getBucketDuration() {
+        return this.source.containsKey(KEY_BUCKET_DURATION) ? (Long) this.source.get(KEY_BUCKET_DURATION) : DEFAULT_BUCKET_DURATION;
+    }
+
+    public int getBucketMaxRecords() {
+        return this.source.containsKey(KEY_BUCKET_MAX_RECORDS) ? (Integer) this.source.get(KEY_BUCKET_MAX_RECORDS) : DEFAULT_BUCKET_MAX_RECORDS;
+    }
+
+    public String getEchoMode() {
+        return this.source.containsKey(KEY_ECHO_MODE) ? (String) this.source.get(KEY_ECHO_MODE) : ECHO_MODE_ALL;
+    }
+
+    public int getEchoSampleEvery() {
+        return this.source.containsKey(KEY_ECHO_SAMPLE_EVERY) ? (Integer) this.source.get(KEY_ECHO_SAMPLE_EVERY) : DEFAULT_ECHO_SAMPLE_EVERY;
+    }
+
+    public long getEchoStatusInterval() {
+        return this.source.containsKey(KEY_ECHO_STATUS_INTERVAL) ? (Long) this.source.get(KEY_ECHO_STATUS_INTERVAL) : DEFAULT_ECHO_STATUS_INTERVAL;
+    }
+
     public static Config getInstance() {
         return instance;
     }
@@ -176,4 +632,190 @@ public class Config {
             return unit;
         }
     }
+
+    /**
+     * A data server to collect from. Data of a named source is stored in a
+     * sub directory of the output directory with the same name; the unnamed
+     * default source stores data in the output directory itself.
+     *
+     * @author Weinan Jimmy Michael
+     */
+    public static class Source {
+
+        private final String name;
+        private final String host;
+        private final int port;
+
+        public Source(String name, String host, int port) {
+            this.name = name;
+            this.host = host;
+            this.port = port;
+        }
+
+        /**
+         * Parse a source from its config form, name@host:port.
+         *
+         * @param raw
+         * @return
+         */
+        public static Source parse(String raw) {
+            String[] nameAndAddress = raw.trim().split("@");
+            if (nameAndAddress.length != 2)
+                throw new RuntimeException("Illegal source format: " + raw);
+            String[] hostAndPort = nameAndAddress[1].split(":");
+            if (hostAndPort.length != 2)
+                throw new RuntimeException("Illegal source format: " + raw);
+            if (!nameAndAddress[0].matches("[A-Za-z0-9_-]+"))
+                throw new RuntimeException("Illegal source name: " + nameAndAddress[0]);
+            return new Source(nameAndAddress[0], hostAndPort[0], Integer.parseInt(hostAndPort[1]));
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        /**
+         * Config form of this source, name@host:port, or host:port for the
+         * single unnamed source.
+         *
+         * @return
+         */
+        @Override
+        public String toString() {
+            return (this.name.isEmpty() ? "" : this.name + "@") + this.host + ":" + this.port;
+        }
+
+        /**
+         * Directory of this source relative to the output directory, either
+         * empty or ending with a file separator.
+         *
+         * @return
+         */
+        public String getDirectory() {
+            return name.isEmpty() ? "" : name + File.separator;
+        }
+    }
+
+    /**
+     * Immutable, array based form of the schema. Fields are identified by
+     * their ordinal (position in the schema), so looking up the type of a
+     * field is an array access, and looking up the ordinal of a field name is
+     * a single hash lookup, independent of how many fields there are.
+     *
+     * @author Weinan Jimmy Michael
+     */
+    public static class CompiledSchema {
+
+        // Type codes of the fields
+        public static final int TYPE_INT = 0;
+        public static final int TYPE_FLOAT = 1;
+
+        // field ordinal -> field
+        private final Schema[] fields;
+
+        // field ordinal -> type code
+        private final int[] types;
+
+        // field name -> field ordinal
+        private final Map<String, Integer> ordinals;
+
+        // ordinals of the required time fields
+        private final int hourOrdinal;
+        private final int minuteOrdinal;
+        private final int secondOrdinal;
+
+        public CompiledSchema(LinkedList schema) {
+            this.fields = new Schema[schema.getSize()];
+            this.types = new int[schema.getSize()];
+            this.ordinals = new HashMap<>();
+
+            int ordinal = 0;
+            for (Object o : schema) {
+                Schema field = (Schema) o;
+                if (this.ordinals.containsKey(field.getName()))
+                    throw new RuntimeException("Duplicate schema field: " + field.getName());
+                this.fields[ordinal] = field;
+                this.types[ordinal] = typeOf(field.getType());
+                this.ordinals.put(field.getName(), ordinal);
+                ordinal++;
+            }
+
+            // Every frame must carry its time, hour and minute as integers
+            this.hourOrdinal = this.requireOrdinal(Measurement.HOUR);
+            this.minuteOrdinal = this.requireOrdinal(Measurement.MINUTE);
+            this.secondOrdinal = this.requireOrdinal(Measurement.SECOND);
+            if (this.types[this.hourOrdinal] != TYPE_INT || this.types[this.minuteOrdinal] != TYPE_INT)
+                throw new RuntimeException("Schema fields '" + Measurement.HOUR + "' and '" + Measurement.MINUTE + "' must be " + Schema.TYPE_INT);
+        }
+
+        private static int typeOf(String type) {
+            switch (type) {
+                case Schema.TYPE_INT:
+                    return TYPE_INT;
+                case Schema.TYPE_FLOAT:
+                    return TYPE_FLOAT;
+                default:
+                    throw new RuntimeException("Unrecognized type: " + type);
+            }
+        }
+
+        private int requireOrdinal(String name) {
+            int ordinal = this.ordinalOf(name);
+            if (ordinal < 0)
+                throw new RuntimeException("Schema missing key: " + name);
+            return ordinal;
+        }
+
+        /**
+         * Get the ordinal of the field with the given name.
+         *
+         * @param name field name
+         * @return the ordinal, or -1 if the schema has no such field
+         */
+        public int ordinalOf(String name) {
+            Integer ordinal = this.ordinals.get(name);
+            return ordinal == null ? -1 : ordinal;
+        }
+
+        public int getHourOrdinal() {
+            return hourOrdinal;
+        }
+
+        public int getMinuteOrdinal() {
+            return minuteOrdinal;
+        }
+
+        public int getSecondOrdinal() {
+            return secondOrdinal;
+        }
+
+        public int getType(int ordinal) {
+            return this.types[ordinal];
+        }
+
+        public String getName(int ordinal) {
+            return this.fields[ordinal].getName();
+        }
+
+        public Schema getField(int ordinal) {
+            return this.fields[ordinal];
+        }
+
+        /**
+         * Number of fields in the schema.
+         *
+         * @return
+         */
+        public int getSize() {
+            return this.fields.length;
+        }
+    }
 }
@@ -0,0 +1,115 @@
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What the collector prints to the console while ingesting, as set by
+ * {@link Config#getEchoMode()}:
+ * - all: every frame, the historical behaviour
+ * - sample: every N-th frame, N being {@link Config#getEchoSampleEvery()}
+ * - status: a one line status every {@link Config#getEchoStatusInterval()}
+ *   milliseconds with throughput, queue depth, stalls, drops and write latency
+ * - off: nothing
+ *
+ * Frames are formatted into one buffer per batch and printed with a single
+ * write, so the console lock is taken once per batch rather than per frame.
+ * Only meant to be used from the writer thread of an {@link IngestPipeline}.
+ *
+ * @author Weinan, Jimmy, Michael
+ */
+public class ConsoleEcho {
+
+    // Where to echo to
+    private final PrintStream out;
+
+    // One of the Config.ECHO_MODE_* values
+    private final String mode;
+
+    // Echo every N-th frame in sample mode
+    private final int sampleEvery;
+
+    // Time between two status lines in status mode
+    private final long statusIntervalNanos;
+
+    // Pipeline to report queue depth, stalls and drops of
+    private final IngestPipeline pipeline;
+
+    // Frames seen so far, to pick the samples
+    private long frames;
+
+    // Figures of the current status interval
+    private long intervalStart;
+    private long intervalRecords;
+    private long intervalBatches;
+    private long intervalWriteNanos;
+    private long intervalMaxWriteNanos;
+
+    public ConsoleEcho(PrintStream out, String mode, int sampleEvery, long statusInterval, IngestPipeline pipeline) {
+        this.out = out;
+        this.mode = mode;
+        this.sampleEvery = sampleEvery;
+        this.statusIntervalNanos = TimeUnit.MILLISECONDS.toNanos(statusInterval);
+        this.pipeline = pipeline;
+        this.frames = 0L;
+        this.intervalStart = System.nanoTime();
+    }
+
+    /**
+     * Echo a batch before it is written, according to the mode.
+     *
+     * @param batch measurements about to be written
+     */
+    public void echo(Measurement[] batch) {
+        if (Config.ECHO_MODE_ALL.equals(this.mode)) {
+            StringBuilder sb = new StringBuilder();
+            for (Measurement measurement : batch)
+                sb.append(measurement.toString()).append('\n');
+            this.out.print(sb);
+        } else if (Config.ECHO_MODE_SAMPLE.equals(this.mode)) {
+            StringBuilder sb = null;
+            for (Measurement measurement : batch) {
+                if (this.frames++ % this.sampleEvery != 0)
+                    continue;
+                if (sb == null)
+                    sb = new StringBuilder();
+                sb.append(measurement.toString()).append('\n');
+            }
+            if (sb != null)
+                this.out.print(sb);
+        }
+    }
+
+    /**
+     * Account for a batch that has been written and print a status line if the
+     * status interval is over.
+     *
+     * @param records number of records in the batch
+     * @param writeNanos time it took to write the batch
+     */
+    public void written(int records, long writeNanos) {
+        if (!Config.ECHO_MODE_STATUS.equals(this.mode))
+            return;
+
+        this.intervalRecords += records;
+        this.intervalBatches++;
+        this.intervalWriteNanos += writeNanos;
+        this.intervalMaxWriteNanos = Math.max(this.intervalMaxWriteNanos, writeNanos);
+
+        long now = System.nanoTime();
+        long elapsed = now - this.intervalStart;
+        if (elapsed < this.statusIntervalNanos)
+            return;
+
+        this.out.println(String.format("Status: records/s=%d queue_depth=%d/%d stalls=%d drops=%d write_ms_avg=%.3f write_ms_max=%.3f",
+                this.intervalRecords * TimeUnit.SECONDS.toNanos(1) / elapsed,
+                this.pipeline.getDepth(), this.pipeline.getCapacity(),
+                this.pipeline.getStalls(), this.pipeline.getDrops(),
+                this.intervalWriteNanos / 1e6 / this.intervalBatches,
+                this.intervalMaxWriteNanos / 1e6));
+
+        this.intervalStart = now;
+        this.intervalRecords = 0L;
+        this.intervalBatches = 0L;
+        this.intervalWriteNanos = 0L;
+        this.intervalMaxWriteNanos = 0L;
+    }
+}
@@ -1,9 +1,13 @@
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.net.Socket;
-import java.util.HashMap;
-import java.util.Map;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
 
 /**
  * Class that collects the data from the server
@@ -14,100 +18,310 @@ public class DataCollector {
     // start command to be issued to the server
     private static final String START_COMMAND = "start\n";
 
+    // how far a frame's time may go back from the previous frame of its source
+    // before it is taken as having gone past midnight
+    private static final long DAY_ROLLOVER_GAP = 12 * 60 * 60 * 1000L;
+
     // the singleton instance
     private static DataCollector instance;
 
+    // whether a capture has been started in this run
+    private volatile boolean collecting;
+
+    // whether the current capture has been finished, i.e. its data and summary written out
+    private boolean finished;
+
+    // whether the process is stopping, which ends the receive loop of the current capture
+    private volatile boolean stopping;
+
     /**
      * Get the singleton of this data collector.
      *
      * @return the singleton instance.
      */
-    public static DataCollector getInstance() {
+    public static synchronized DataCollector getInstance() {
         if (null == instance)
             instance = new DataCollector();
         return instance;
     }
 
+    /**
+     * Receive data from every configured source (see {@link Config#getSources()})
+     * until it goes past the record time (or the server closes the connection),
+     * writing it to the data buckets and collecting summary stats along the way.
+     *
+     * All sources are multiplexed over one {@link Selector} on this thread using
+     * non-blocking socket channels. Frames are read in bulk into a reusable buffer
+     * per source and decoded in batches of up to {@link Config#getIngestBatchSize()}
+     * frames. A frame on the wire has the same layout as a record in
+     * {@link BucketFormat}, so decoding is a plain copy. Each frame is tagged with
+     * the id of its source, and each batch is handed to the {@link IngestPipeline},
+     * whose writer thread echoes (as configured) and writes it, so this thread
+     * only receives.
+     *
+     * The record time starts with the first frame from any source and applies to
+     * all of them; a source is dropped once it goes past it. A record time of 0
+     * captures until every server has closed its connection or the process is
+     * stopped; a shutdown hook then ends the receive loop, waits for the writer
+     * to write out what it has been handed, and writes the summary.
+     *
+     * Frames carry the time of day only, so a capture cannot go past midnight:
+     * the next day's frames would fall before the start of the capture. When a
+     * source goes past midnight the capture stops, as if every server had
+     * closed its connection, and says so.
+     *
+     * @param dataRecordTime how long to record for, in milliseconds, from the first frame, 0 for no limit
+     * @throws Exception
+     */
     public void collectData(Long dataRecordTime) throws Exception {
-        Socket socket = new Socket("localhost", Config.getInstance().getPort());
-        DataInputStream in = new DataInputStream(socket.getInputStream());
-        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
-
-        // Tell server to start sending data
-        out.writeBytes(START_COMMAND);
+        this.collecting = true;
 
         // Setup a few things:
         // 1) firstMeasurement: we need to know which one is the first one, in order
         //    to fill the startTimestamp in summary and hash
         // 2) summary: we need that to accumulate stats for all the data
         // 3) hash: we need that to determine timestamp-bucket correlation
+        // 4) batch: the decoded frames handed to the writer
+        // 5) pipeline: the writer stage running on its own thread
+        // 6) selector: one connection per source, registered with a receive buffer
         Measurement firstMeasurement = null;
         Summary summary = Summary.empty();
         summary.setSchema(Config.getInstance().getSchema());
         Hash hash = Hash.getInstance();
+        int frameWidth = BucketFormat.recordWidth(Config.getInstance().getSchema());
+        int batchSize = Config.getInstance().getIngestBatchSize();
+        Measurement[] batch = new Measurement[batchSize];
+        IngestPipeline pipeline = new IngestPipeline(
+                Config.getInstance().getIngestQueueCapacity(),
+                Config.getInstance().getIngestOverflow(),
+                Config.getInstance().getEchoMode(),
+                Config.getInstance().getEchoSampleEvery(),
+                Config.getInstance().getEchoStatusInterval()
+        );
+        Selector selector = Selector.open();
+        Config.Source[] sources = Config.getInstance().getSources();
+        int open = 0;
+        for (int id = 0; id < sources.length; id++) {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            try {
+                channel.connect(new InetSocketAddress(sources[id].getHost(), sources[id].getPort()));
+            } catch (IOException ex) {
+                // A source that cannot be reached does not stop the others
+                System.out.println("Cannot connect to " + sources[id] + ": " + ex.getMessage());
+                channel.close();
+                continue;
+            } catch (UnresolvedAddressException ex) {
+                System.out.println("Cannot connect to " + sources[id] + ": unknown host");
+                channel.close();
+                continue;
+            }
+            channel.register(selector, SelectionKey.OP_CONNECT, new Receiver(id, frameWidth * batchSize));
+            open++;
+        }
+
+        // Make sure queued and buffered bucket data and the summary reach the disk even
+        // if we are interrupted, which is how an unbounded capture is normally stopped:
+        // the hook stops the receive loop and waits for the writer to drain before
+        // the buckets are closed
+        this.finished = false;
+        this.stopping = false;
+        // Released once the capture has stopped receiving and its writer has drained
+        CountDownLatch drained = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            this.stopping = true;
+            selector.wakeup();
+            try {
+                drained.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            this.finish(summary);
+        }));
 
         System.out.println("Start receiving data...");
-        // Loop for reading data from server
-        while (true) {
-
-            // Gather all data from configured schema
-            Map<String, Object> data = new HashMap<>();
-            Config.getInstance().getSchema().forEach(o -> {
-                Config.Schema schema = (Config.Schema) o;
-                try {
-                    switch (schema.getType()) {
-                        case Config.Schema.TYPE_INT:
-                            data.put(schema.getName(), in.readInt());
-                            summary.increaseBytesCount(4);  // int is 4 bytes in java
+        pipeline.start();
+        // Loop for reading data from servers, until every source is done or the
+        // process is stopping. The summary is rewritten as often as buffered data
+        // is flushed, so it can be queried while data comes in.
+        long summaryInterval = Config.getInstance().getFlushInterval();
+        long lastSummaryTime = System.currentTimeMillis();
+        Config.Source rolledOver = null;
+        try {
+            while (open > 0 && !this.stopping && null == rolledOver) {
+                long now = System.currentTimeMillis();
+                if (null != firstMeasurement && now - lastSummaryTime >= summaryInterval) {
+                    DataWriter.getInstance().writeToSummary(summary.toString());
+                    lastSummaryTime = now;
+                }
+
+                selector.select(summaryInterval);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext() && null == rolledOver) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    SocketChannel channel = (SocketChannel) key.channel();
+                    Receiver receiver = (Receiver) key.attachment();
+
+                    // Connected: tell server to start sending data. A source that
+                    // refuses or cannot be reached is dropped, the others carry on.
+                    if (key.isConnectable()) {
+                        try {
+                            channel.finishConnect();
+                            ByteBuffer command = ByteBuffer.wrap(START_COMMAND.getBytes());
+                            while (command.hasRemaining())
+                                channel.write(command);
+                            key.interestOps(SelectionKey.OP_READ);
+                        } catch (IOException ex) {
+                            System.out.println("Cannot connect to " + sources[receiver.id] + ": " + ex.getMessage());
+                            close(key);
+                            open--;
+                        }
+                        continue;
+                    }
+
+                    // Read whatever the server has sent so far, up to a full batch.
+                    // Stop receiving from it when the server has closed the connection,
+                    // or the connection failed.
+                    ByteBuffer in = receiver.buffer;
+                    boolean receiving;
+                    try {
+                        receiving = channel.read(in) >= 0;
+                    } catch (IOException ex) {
+                        System.out.println("Lost connection to " + sources[receiver.id] + ": " + ex.getMessage());
+                        receiving = false;
+                    }
+                    in.flip();
+
+                    // Decode all complete frames, a trailing partial frame waits for the next read
+                    int size = 0;
+                    int received = 0;
+                    long batchEnd = Long.MIN_VALUE;
+                    while (receiving && in.remaining() >= frameWidth) {
+                        // Create a new measurement from the frame
+                        Measurement newMeasurement = Measurement.readFrom(in);
+                        newMeasurement.setSource(receiver.id);
+                        received++;
+
+                        // Assign the measurement as the first measurement if it's vacant
+                        // Initialize the time range for the hash, so we can start assigning buckets
+                        if (null == firstMeasurement) {
+                            firstMeasurement = newMeasurement;
+                            // End first: readers take a set start as the sign the range is complete
+                            if (dataRecordTime > 0)
+                                hash.setEndMillisecond(firstMeasurement.getTimeInMilliseconds() + dataRecordTime);
+                            hash.setStartMillisecond(firstMeasurement.getTimeInMilliseconds());
+                            summary.setStartTimestamp(firstMeasurement.getTimeInMilliseconds());
+                        }
+
+                        // Stop the capture once a source goes past midnight
+                        if (newMeasurement.getTimeInMilliseconds() < receiver.lastTime - DAY_ROLLOVER_GAP) {
+                            rolledOver = sources[receiver.id];
+                            receiving = false;
                             break;
-                        case Config.Schema.TYPE_FLOAT:
-                            data.put(schema.getName(), in.readFloat());
-                            summary.increaseBytesCount(4);  // float is 4 bytes in java
+                        }
+                        receiver.lastTime = Math.max(receiver.lastTime, newMeasurement.getTimeInMilliseconds());
+
+                        // Stop receiving from this source if time is out of range
+                        if (newMeasurement.getTimeInMilliseconds() > hash.getEndMillisecond()) {
+                            receiving = false;
                             break;
-                    }
-                } catch (IOException ex) {
-                    throw new RuntimeException(ex);
-                }
-            });
-
-            // Create a new measurement from the data
-            Measurement newMeasurement = new Measurement(data);
-
-            // Assign the measurement as the first measurement if it's vacant
-            // Initialize the time range for the hash, so we can start assigning buckets
-            if (null == firstMeasurement) {
-                firstMeasurement = newMeasurement;
-                hash.setStartMillisecond(firstMeasurement.getTimeInMilliseconds());
-                hash.setEndMillisecond(firstMeasurement.getTimeInMilliseconds() + dataRecordTime);
-                summary.setStartTimestamp(firstMeasurement.getTimeInMilliseconds());
-            }
+                        }
 
-            // Stop receiving if time is out of range
-            if (newMeasurement.getTimeInMilliseconds() > hash.getEndMillisecond()) {
-                System.out.println("Start: " + hash.getStartMillisecond() + " end: " + hash.getEndMillisecond());
-                break;
-            }
+                        // Skip frames a slower source sent from before the capture started
+                        if (newMeasurement.getTimeInMilliseconds() < hash.getStartMillisecond())
+                            continue;
 
-            // Print out data on console
-            System.out.println(newMeasurement.toString());
+                        batchEnd = Math.max(batchEnd, newMeasurement.getTimeInMilliseconds());
+                        batch[size++] = newMeasurement;
+                    }
+                    in.compact();
 
-            // Update end time stamp
-            summary.setEndTimestamp(newMeasurement.getTimeInMilliseconds());
+                    // Hand the batch over to the writer stage. The frames of a batch it
+                    // drops do not count towards the bytes and end time stamp of the capture.
+                    if (size == 0 || pipeline.submit(Arrays.copyOf(batch, size))) {
+                        summary.increaseBytesCount((long) received * frameWidth);
+                        summary.setEndTimestamp(Math.max(summary.getEndTimestamp(), batchEnd));
+                    }
 
-            // Write the measurement to the appropriate bucket
-            long bucketIndex = hash.getBucketIndex(newMeasurement.getTimeInMilliseconds());
+                    // Bye to the server
+                    if (!receiving) {
+                        close(key);
+                        open--;
+                    }
+                }
+            }
+        } finally {
+            // Wait for the writer to catch up, also when receiving failed, so
+            // nothing is written after the buckets are closed
+            for (SelectionKey key : selector.keys())
+                close(key);
+            selector.close();
             try {
-                DataWriter.getInstance().writeToData(newMeasurement.toString(), bucketIndex);
-            } catch (Exception ex) {
-                throw new RuntimeException("Write data failed: " + ex.getMessage());
+                pipeline.finish();
+            } finally {
+                drained.countDown();
             }
         }
-
-        // Bye to the server
-        socket.close();
+        if (null != rolledOver)
+            System.out.println("Capture stopped: " + rolledOver + " went past midnight, which a capture cannot span");
+        if (null != firstMeasurement)
+            System.out.println("Start: " + hash.getStartMillisecond() + " end: " + hash.getEndMillisecond());
         System.out.println("Finished receiving data.");
+        System.out.println("Ingest: " + pipeline.report());
+        this.finish(summary);
+    }
 
-        // Write summary file
-        DataWriter.getInstance().writeToSummary(summary.toString());
+    /**
+     * Whether a capture has been started in this run. Its data may still be
+     * coming in.
+     *
+     * @return
+     */
+    public boolean isCollecting() {
+        return collecting;
+    }
+
+    /**
+     * Flush and close all data buckets and write the summary file, once per capture.
+     *
+     * @param summary stats of the capture
+     */
+    private synchronized void finish(Summary summary) {
+        if (this.finished)
+            return;
+        this.finished = true;
+        try {
+            DataWriter.getInstance().close();
+            DataWriter.getInstance().writeToSummary(summary.toString());
+        } catch (Exception ex) {
+            throw new RuntimeException("Finish capture failed: " + ex.getMessage());
+        }
+    }
+
+    private static void close(SelectionKey key) throws IOException {
+        key.cancel();
+        key.channel().close();
+    }
+
+    /**
+     * Per source receive state, attached to its selection key.
+     */
+    private static class Receiver {
+
+        // Id of the source, see Config#getSources()
+        private final int id;
+
+        // Receive buffer that holds a whole batch of frames
+        private final ByteBuffer buffer;
+
+        // Latest frame time received from the source, 0 before the first
+        private long lastTime;
+
+        Receiver(int id, int capacity) {
+            this.id = id;
+            this.buffer = ByteBuffer.allocateDirect(capacity);
+            this.lastTime = 0L;
+        }
     }
 }
@@ -1,6 +1,15 @@
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.stream.Stream;
 
 /**
@@ -10,12 +19,30 @@ import java.util.stream.Stream;
  */
 public class DataReader {
 
-    // Singleton instance
-    private static DataReader instance;
+    // One instance per source, by source id
+    private static DataReader[] instances;
+
+    // Id of the source this reader reads, see Config#getSources()
+    private final int source;
 
     // Storage directory
     private final String outputDirectory;
 
+    // Directory of the data buckets of the source this reader reads
+    private final String dataDirectory;
+
+    // Schema of the records, a LinkedList of Config.Schema
+    private final LinkedList schema;
+
+    // Size of the bucket header for the schema
+    private final int headerSize;
+
+    // How bucket files are read, see Config#getReadMode()
+    private final String readMode;
+
+    // Memory mappings of bucket files, keyed by bucket index
+    private final Map<Integer, MappedByteBuffer> mappings;
+
     /**
      * Private constructor, makes sure the output directory ends
      * with a file separator so we can directory append file name
@@ -23,42 +50,211 @@ public class DataReader {
      *
      * @param outputDirectory
      */
-    private DataReader(String outputDirectory) {
+    private DataReader(String outputDirectory, int sourceId, Config.Source source, LinkedList schema, String readMode) {
+        this.source = sourceId;
         if (!outputDirectory.endsWith(File.separator))
             this.outputDirectory = outputDirectory + File.separator;
         else
             this.outputDirectory = outputDirectory;
+        this.dataDirectory = this.outputDirectory + source.getDirectory();
+        this.schema = schema;
+        this.headerSize = BucketFormat.header(schema).length;
+        this.readMode = readMode;
+        this.mappings = new HashMap<>();
     }
 
     /**
-     * Get the {@link DataReader} singleton. Initialize it when it's NULL.
+     * Get the {@link DataReader} of the first (or only) source.
      * @return
      */
     public static DataReader getInstance() {
-        if (null == instance)
-            instance = new DataReader(Config.getInstance().getOutputDirectory());
-        return instance;
+        return getInstance(0);
+    }
+
+    /**
+     * Get the {@link DataReader} reading the data buckets of the given source.
+     * Initialize them when they are NULL. If no data is collected in this run,
+     * the {@link Hash} bucket layout is restored from the bucket catalog of an
+     * earlier run, if there is one.
+     *
+     * @param source source id, see {@link Config#getSources()}
+     * @return
+     */
+    public static synchronized DataReader getInstance(int source) {
+        if (null == instances) {
+            Config config = Config.getInstance();
+            instances = new DataReader[config.getSources().length];
+            for (int i = 0; i < instances.length; i++) {
+                instances[i] = new DataReader(
+                        config.getOutputDirectory(), i, config.getSources()[i], config.getSchema(), config.getReadMode());
+            }
+            if (!DataCollector.getInstance().isCollecting() && !Hash.getInstance().isStarted())
+                instances[0].readCatalog();
+        }
+        return instances[source];
     }
 
     /**
-     * Read all data into stream of lines from the summary file.
+     * Read all data into stream of lines from the summary file. There are no
+     * lines before the collector has written the first summary.
      *
      * @return
      * @throws Exception
      */
     public Stream<String> readFromSummary() throws Exception {
+        if (Files.notExists(Paths.get(this.outputDirectory + DataWriter.SUMMARY_FILE_NAME)))
+            return Stream.empty();
         return this.readFromFile(DataWriter.SUMMARY_FILE_NAME);
     }
 
     /**
-     * Read all data into stream of lines from the data bucket specified by the index.
+     * Restore the {@link Hash} bucket layout from the bucket catalog, if there is one.
+     */
+    private void readCatalog() {
+        Path path = Paths.get(this.outputDirectory + DataWriter.BUCKETS_FILE_NAME);
+        if (Files.notExists(path))
+            return;
+        try {
+            Hash.getInstance().decode(ByteBuffer.wrap(Files.readAllBytes(path)));
+        } catch (IOException ex) {
+            throw new RuntimeException("Read bucket catalog failed: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Open a cursor over the records of the data bucket specified by the index.
+     * The bucket is in {@link BucketFormat}, so records are decoded straight from
+     * their fixed-width binary form. A bucket that has never been written to
+     * yields an empty cursor.
+     *
+     * In {@link Config#READ_MODE_MMAP} mode the bucket file is memory-mapped and
+     * the mapping is kept for later queries until the file grows, so repeated
+     * queries share the OS page cache instead of re-reading the file. In
+     * {@link Config#READ_MODE_HEAP} mode the file is read into the heap every time.
+     *
+     * While the bucket is being written the cursor only covers the records the
+     * {@link DataWriter} has committed, see {@link DataWriter#getCommittedRecords(int, long)}.
      *
      * @param index index of the data bucket to read.
      * @return
      * @throws Exception
      */
-    public Stream<String> readFromData(int index) throws Exception {
-        return this.readFromFile(DataWriter.getDataFileName(index));
+    public RecordCursor openData(int index) throws Exception {
+        int committed = DataWriter.getInstance().getCommittedRecords(this.source, index);
+        Path path = Paths.get(this.dataDirectory + DataWriter.getDataFileName(index));
+        if (committed == 0 || Files.notExists(path))
+            return RecordCursor.empty();
+
+        ByteBuffer buffer;
+        if (Config.READ_MODE_MMAP.equals(this.readMode))
+            buffer = this.map(index, path);
+        else
+            buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+
+        // Header not completely written yet, by a writer in another process
+        if (buffer.limit() < this.headerSize)
+            return RecordCursor.empty();
+
+        int headerSize = BucketFormat.readHeader(buffer, this.schema);
+        return new RecordCursor(buffer, headerSize, BucketFormat.recordWidth(this.schema),
+                committed < 0 ? Integer.MAX_VALUE : committed);
+    }
+
+    /**
+     * Read the sparse time index of the data bucket specified by the index. A
+     * bucket without an index file yields an empty index, which makes readers
+     * scan the bucket from the start.
+     *
+     * @param index index of the data bucket
+     * @return
+     * @throws Exception
+     */
+    public SparseIndex readIndex(int index) throws Exception {
+        Path path = Paths.get(this.dataDirectory + DataWriter.getIndexFileName(index));
+        if (Files.notExists(path))
+            return SparseIndex.empty();
+        return SparseIndex.parse(ByteBuffer.wrap(Files.readAllBytes(path)));
+    }
+
+    /**
+     * Read the zone map of the data bucket specified by the index. A bucket
+     * without a zone file yields an empty zone map, which makes readers scan
+     * every block of the bucket.
+     *
+     * @param index index of the data bucket
+     * @return
+     * @throws Exception
+     */
+    public ZoneMap readZones(int index) throws Exception {
+        Path path = Paths.get(this.dataDirectory + DataWriter.getZoneFileName(index));
+        if (Files.notExists(path))
+            return ZoneMap.empty();
+        return ZoneMap.parse(ByteBuffer.wrap(Files.readAllBytes(path)), Config.getInstance().getCompiledSchema());
+    }
+
+    /**
+     * Read the inverted value index of the data bucket specified by the index.
+     * Only the header is read here, see {@link InvertedIndex#parse(ByteBuffer)}.
+     *
+     * @param index index of the data bucket
+     * @return the index, or NULL if the bucket has none (e.g. it is still being written)
+     * @throws Exception
+     */
+    public InvertedIndex readInvertedIndex(int index) throws Exception {
+        Path path = Paths.get(this.dataDirectory + DataWriter.getInvertedIndexFileName(index));
+        try {
+            if (!Config.READ_MODE_MMAP.equals(this.readMode))
+                return InvertedIndex.parse(ByteBuffer.wrap(Files.readAllBytes(path)));
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                return InvertedIndex.parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        } catch (NoSuchFileException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Read the rollup tier of the given resolution of this source. The rollup
+     * is memory-mapped whatever the read mode: an aggregation only looks at a
+     * few of its entries, so reading all of it into memory would cost more
+     * than the aggregation saves.
+     *
+     * @param resolution length of a rollup window in milliseconds, see {@link Config#getRollupTiers()}
+     * @return the rollup, empty if the tier has not been written
+     * @throws Exception
+     */
+    public Rollup readRollup(long resolution) throws Exception {
+        Path path = Paths.get(this.dataDirectory + DataWriter.getRollupFileName(resolution));
+        int fields = Config.getInstance().getCompiledSchema().getSize();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return Rollup.parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), fields, resolution);
+        } catch (NoSuchFileException ex) {
+            return Rollup.empty();
+        }
+    }
+
+    /**
+     * Get the memory mapping of a bucket file, reusing the cached mapping when
+     * the file has not grown since it was mapped.
+     *
+     * @param index index of the data bucket
+     * @param path path of the data bucket file
+     * @return read-only mapping of the whole file
+     * @throws IOException
+     */
+    private synchronized ByteBuffer map(int index, Path path) throws IOException {
+        MappedByteBuffer mapped = this.mappings.get(index);
+        if (mapped != null && mapped.capacity() == Files.size(path))
+            return mapped;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new RuntimeException("Bucket too large to map: " + path);
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        this.mappings.put(index, mapped);
+        return mapped;
     }
 
     /**
@@ -1,12 +1,36 @@
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class is responsible for writing data to the storage area.
  *
+ * Data buckets are written through long-lived, buffered channels (one per
+ * bucket) instead of opening and closing the file for every record. Buffered
+ * content is flushed to disk according to the configured flush policy
+ * (see {@link Config#getFlushBytes()}, {@link Config#getFlushRecords()} and
+ * {@link Config#getFlushInterval()}) and when the writer is closed.
+ *
+ * Readers may query the buckets while they are being written. For every
+ * bucket the writer publishes how many records have been written out in
+ * full (see {@link #getCommittedRecords(int, long)}); readers never look
+ * past that watermark, so they never see a record that is half written.
+ *
  * @author Weinan Jimmy Michael
  */
 public class DataWriter {
@@ -20,24 +44,105 @@ public class DataWriter {
     // data bucket file name (i.e. data.0 data.1 ...)
     public static final String DAT_FILE_PREFIX = "data";
 
+    // bucket catalog file name, the time to bucket mapping of Hash
+    public static final String BUCKETS_FILE_NAME = "buckets";
+
+    // suffix of a file being replaced (i.e. summary.tmp)
+    private static final String TMP_FILE_SUFFIX = ".tmp";
+
+    // sparse time index file suffix (i.e. data.0.idx data.1.idx ...)
+    public static final String IDX_FILE_SUFFIX = "idx";
+
+    // zone map file suffix (i.e. data.0.zone data.1.zone ...)
+    public static final String ZONE_FILE_SUFFIX = "zone";
+
+    // inverted value index file suffix (i.e. data.0.inv data.1.inv ...)
+    public static final String INV_FILE_SUFFIX = "inv";
+
+    // rollup file name (i.e. rollup.1000 rollup.60000 ...)
+    public static final String ROLLUP_FILE_PREFIX = "rollup";
+
     // output directory (a.k.a storage area)
     private final String outputDirectory;
 
+    // schema of the records, a LinkedList of Config.Schema
+    private final LinkedList schema;
+
+    // whether each field is a float, by ordinal, to keep zone maps
+    private final boolean[] floats;
+
+    // ordinals of the fields to keep an inverted value index of
+    private final int[] invertedOrdinals;
+
+    // directory of each source relative to the output directory, by source id
+    private final String[] sourceDirectories;
+
+    // open bucket writers of each source, keyed by bucket index, by source id
+    private final List<Map<Long, BucketWriter>> buckets;
+
+    // records written out in full of each source, keyed by bucket index, by source id
+    private final List<Map<Long, AtomicInteger>> committed;
+
+    // resolutions of the rollup tiers, and their open writers by source id then tier,
+    // NULL for a source until it is written to
+    private final long[] rollupTiers;
+    private final Rollup.Writer[][] rollups;
+
+    // flush policy
+    private final int flushBytes;
+    private final int flushRecords;
+    private final long flushInterval;
+
+    // write a sparse index entry for every this many records
+    private final int indexInterval;
+
+    // the last time (in milliseconds) all buckets were flushed
+    private long lastFlushTime;
+
+    // number of buckets in the last bucket catalog written, -1 if none was written yet
+    private int catalogBuckets;
+
+    // guards the summary file, apart from the buckets so summary and data writes do not wait on each other
+    private final Object fileLock;
+
     /**
      * Private constructor, makes sure output directory ends with a file
      * separator, so we can directly append file names to it later.
      *
      * @param outputDirectory
      */
-    private DataWriter(String outputDirectory) {
+    private DataWriter(String outputDirectory, LinkedList schema, boolean[] floats, int[] invertedOrdinals,
+                       long[] rollupTiers, Config.Source[] sources, int flushBytes, int flushRecords,
+                       long flushInterval, int indexInterval) {
         if (!outputDirectory.endsWith(File.separator))
             this.outputDirectory = outputDirectory + File.separator;
         else
             this.outputDirectory = outputDirectory;
+        this.schema = schema;
+        this.floats = floats;
+        this.invertedOrdinals = invertedOrdinals;
+        this.rollupTiers = rollupTiers;
+        this.rollups = new Rollup.Writer[sources.length][];
+        this.sourceDirectories = new String[sources.length];
+        this.buckets = new ArrayList<>();
+        this.committed = new ArrayList<>();
+        for (int i = 0; i < sources.length; i++) {
+            this.sourceDirectories[i] = sources[i].getDirectory();
+            this.buckets.add(new HashMap<>());
+            this.committed.add(new ConcurrentHashMap<>());
+        }
+        this.flushBytes = flushBytes;
+        this.flushRecords = flushRecords;
+        this.flushInterval = flushInterval;
+        this.indexInterval = indexInterval;
+        this.lastFlushTime = System.currentTimeMillis();
+        this.catalogBuckets = -1;
+        this.fileLock = new Object();
     }
 
     /**
-     * Append the content to summary file.
+     * Replace the summary file with the content. The collector rewrites the
+     * summary as data comes in, and readers always see a complete one.
      *
      * @param content
      * @throws Exception
@@ -47,58 +152,588 @@ public class DataWriter {
     }
 
     /**
-     * Append the data bucket specified by index with the given content.
+     * Get the number of records of a data bucket that have been written out in
+     * full, i.e. are safe to read.
      *
-     * @param content
+     * @param source source id, see {@link Config#getSources()}
+     * @param index bucket index
+     * @return the number of records, or -1 if this writer has not written to the bucket
+     */
+    public int getCommittedRecords(int source, long index) {
+        AtomicInteger records = this.committed.get(source).get(index);
+        return records == null ? -1 : records.get();
+    }
+
+    /**
+     * Append a batch of measurements to their data buckets, in {@link BucketFormat}.
+     * Every source has its own set of buckets, the bucket of each measurement within
+     * that set is determined by {@link Hash}, whose catalog is written out whenever
+     * it gains a bucket. Records are buffered and only reach the disk when the
+     * flush policy says so, or when {@link #close()} is called.
+     *
+     * @param batch measurements in time order (per source)
+     * @param size number of measurements in the batch to write, from the start
+     * @throws Exception
+     */
+    public synchronized void writeToData(Measurement[] batch, int size) throws Exception {
+        Hash hash = Hash.getInstance();
+        for (int i = 0; i < size; i++)
+            this.writeToData(batch[i], hash.assign(batch[i].getTimeInMilliseconds()));
+        if (hash.getBucketCount() != this.catalogBuckets)
+            this.writeCatalog();
+
+        // Time based flush covers all buckets, so an idle bucket does not
+        // hold on to its buffered records forever.
+        long now = System.currentTimeMillis();
+        if (now - this.lastFlushTime >= this.flushInterval) {
+            this.flush();
+            this.lastFlushTime = now;
+        }
+    }
+
+    /**
+     * Append the measurement to the data bucket specified by index, among the
+     * buckets of the source the measurement came from.
+     *
+     * @param measurement
      * @param index
      * @throws Exception
      */
-    public void writeToData(String content, long index) throws Exception {
-        this.writeToFile(getDataFileName(index), content);
+    private void writeToData(Measurement measurement, long index) throws Exception {
+        Map<Long, BucketWriter> buckets = this.buckets.get(measurement.getSource());
+        BucketWriter bucket = buckets.get(index);
+        if (null == bucket) {
+            // Frames of a source come in time order, so its older buckets are done
+            // with; close them to keep the number of open files bounded. A late
+            // frame would simply reopen its bucket.
+            Iterator<Map.Entry<Long, BucketWriter>> older = buckets.entrySet().iterator();
+            while (older.hasNext()) {
+                Map.Entry<Long, BucketWriter> entry = older.next();
+                if (entry.getKey() < index) {
+                    entry.getValue().close();
+                    older.remove();
+                }
+            }
+
+            // Publish the watermark before the file exists, so readers
+            // never look at a bucket whose header is still being written
+            AtomicInteger committed = this.committed.get(measurement.getSource())
+                    .computeIfAbsent(index, k -> new AtomicInteger(0));
+
+            String directory = this.outputDirectory + this.sourceDirectories[measurement.getSource()];
+            Files.createDirectories(Paths.get(directory));
+            bucket = new BucketWriter(
+                    Paths.get(directory + getDataFileName(index)),
+                    Paths.get(directory + getIndexFileName(index)),
+                    Paths.get(directory + getZoneFileName(index)),
+                    Paths.get(directory + getInvertedIndexFileName(index)),
+                    BucketFormat.header(this.schema),
+                    BucketFormat.recordWidth(this.schema),
+                    this.floats,
+                    this.invertedOrdinals,
+                    this.flushBytes,
+                    this.indexInterval,
+                    committed
+            );
+            buckets.put(index, bucket);
+        }
+
+        bucket.write(measurement);
+        if (this.flushRecords > 0 && bucket.getPendingRecords() >= this.flushRecords)
+            bucket.flush();
+
+        Rollup.Writer[] rollups = this.rollups[measurement.getSource()];
+        if (null == rollups) {
+            String directory = this.outputDirectory + this.sourceDirectories[measurement.getSource()];
+
+            // A tier no longer configured would not summarize the records written
+            // from now on; remove it so that aggregations do not use it
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get(directory), ROLLUP_FILE_PREFIX + ".*")) {
+                for (Path file : files) {
+                    String resolution = file.getFileName().toString().substring(ROLLUP_FILE_PREFIX.length() + 1);
+                    boolean configured = false;
+                    for (long tier : this.rollupTiers)
+                        configured |= Long.toString(tier).equals(resolution);
+                    if (!configured)
+                        Files.delete(file);
+                }
+            }
+
+            rollups = new Rollup.Writer[this.rollupTiers.length];
+            for (int i = 0; i < rollups.length; i++)
+                rollups[i] = new Rollup.Writer(Paths.get(directory + getRollupFileName(this.rollupTiers[i])),
+                        this.rollupTiers[i], this.floats);
+            this.rollups[measurement.getSource()] = rollups;
+        }
+        for (Rollup.Writer rollup : rollups)
+            rollup.add(measurement);
     }
 
     /**
-     * Append the custom file with the given content.
+     * Flush all buffered bucket content to disk, then the rollup entries, so
+     * that an entry on disk never summarizes records readers cannot see yet.
+     *
+     * @throws IOException
+     */
+    public synchronized void flush() throws IOException {
+        for (Map<Long, BucketWriter> buckets : this.buckets) {
+            for (BucketWriter bucket : buckets.values())
+                bucket.flush();
+        }
+        for (Rollup.Writer[] rollups : this.rollups) {
+            if (rollups != null) {
+                for (Rollup.Writer rollup : rollups)
+                    rollup.flush();
+            }
+        }
+    }
+
+    /**
+     * Flush and close all open bucket channels. It is safe to call this
+     * more than once; buckets written after closing are reopened.
+     */
+    public synchronized void close() {
+        // Close every bucket even if one fails, so none is left unflushed or
+        // open; the first failure is reported once all are done
+        IOException failure = null;
+        for (Map<Long, BucketWriter> buckets : this.buckets) {
+            for (BucketWriter bucket : buckets.values()) {
+                try {
+                    bucket.close();
+                } catch (IOException ex) {
+                    if (null == failure)
+                        failure = ex;
+                }
+            }
+            buckets.clear();
+        }
+        for (Rollup.Writer[] rollups : this.rollups) {
+            if (rollups != null) {
+                for (Rollup.Writer rollup : rollups) {
+                    try {
+                        rollup.close();
+                    } catch (IOException ex) {
+                        if (null == failure)
+                            failure = ex;
+                    }
+                }
+            }
+        }
+        Arrays.fill(this.rollups, null);
+        try {
+            if (this.catalogBuckets >= 0)
+                this.writeCatalog();
+        } catch (IOException ex) {
+            if (null == failure)
+                failure = ex;
+        }
+        if (failure != null)
+            throw new RuntimeException("Close data buckets failed: " + failure.getMessage());
+    }
+
+    /**
+     * Write the {@link Hash} bucket catalog, replacing the previous one. Like
+     * the custom files, it goes to a temporary file first, so a crash or a
+     * reader never sees a truncated catalog.
+     *
+     * @throws IOException
+     */
+    private void writeCatalog() throws IOException {
+        Hash hash = Hash.getInstance();
+        Path outputPath = Paths.get(this.outputDirectory + BUCKETS_FILE_NAME);
+        Path temporaryPath = Paths.get(this.outputDirectory + BUCKETS_FILE_NAME + TMP_FILE_SUFFIX);
+        Files.createDirectories(outputPath.getParent());
+        Files.write(temporaryPath, hash.encode());
+        Files.move(temporaryPath, outputPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        this.catalogBuckets = hash.getBucketCount();
+    }
+
+    /**
+     * Replace the custom file with the given content. The content goes to a
+     * temporary file first, which is then moved over the file in one step.
      *
      * @param fileName
      * @param content
      * @throws Exception
      */
     private void writeToFile(String fileName, String content) throws Exception {
-        sanitizeNewLine(content);
+        content = sanitizeNewLine(content);
 
         Path outputPath = Paths.get(this.outputDirectory + fileName);
-        if (!Files.exists(outputPath)) {
-            Files.createFile(outputPath);
-        } else {
-            content = "\n" + content;
+        Path temporaryPath = Paths.get(this.outputDirectory + fileName + TMP_FILE_SUFFIX);
+        synchronized (this.fileLock) {
+            Files.createDirectories(outputPath.getParent());
+            Files.write(temporaryPath, content.getBytes());
+            Files.move(temporaryPath, outputPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
         }
-
-        Files.write(outputPath, content.getBytes(), StandardOpenOption.APPEND);
     }
 
     public static String getDataFileName(long index) {
         return DAT_FILE_PREFIX + "." + index;
     }
 
+    public static String getIndexFileName(long index) {
+        return getDataFileName(index) + "." + IDX_FILE_SUFFIX;
+    }
+
+    public static String getZoneFileName(long index) {
+        return getDataFileName(index) + "." + ZONE_FILE_SUFFIX;
+    }
+
+    public static String getInvertedIndexFileName(long index) {
+        return getDataFileName(index) + "." + INV_FILE_SUFFIX;
+    }
+
+    public static String getRollupFileName(long resolution) {
+        return ROLLUP_FILE_PREFIX + "." + resolution;
+    }
+
     /**
      * Helper to trim all new lines from start and end of the content
      * @param content
+     * @return the trimmed content
      */
-    private void sanitizeNewLine(String content) {
+    private String sanitizeNewLine(String content) {
         while (content.startsWith("\n"))
             content = content.substring(1);
         while (content.endsWith("\n"))
             content = content.substring(0, content.length() - 1);
+        return content;
     }
 
     /**
      * Get the {@link DataWriter} singleton.
      * @return
      */
-    public static DataWriter getInstance() {
-        if (null == instance)
-            instance = new DataWriter(Config.getInstance().getOutputDirectory());
+    public static synchronized DataWriter getInstance() {
+        if (null == instance) {
+            Config config = Config.getInstance();
+            String[] invertedFields = config.getInvertedIndexFields();
+            int[] invertedOrdinals = new int[invertedFields.length];
+            for (int i = 0; i < invertedFields.length; i++)
+                invertedOrdinals[i] = config.getCompiledSchema().ordinalOf(invertedFields[i]);
+            instance = new DataWriter(
+                    config.getOutputDirectory(),
+                    config.getSchema(),
+                    ZoneMap.floatsOf(config.getCompiledSchema()),
+                    invertedOrdinals,
+                    config.getRollupTiers(),
+                    config.getSources(),
+                    config.getFlushBytes(),
+                    config.getFlushRecords(),
+                    config.getFlushInterval(),
+                    config.getIndexInterval()
+            );
+        }
         return instance;
     }
+
+    /**
+     * An open, buffered append channel to a single data bucket file, its
+     * {@link SparseIndex} file and its {@link ZoneMap} file. The
+     * {@link InvertedIndex}, if any fields have one, is collected in memory
+     * and written when the writer is closed. A new bucket file
+     * starts with the {@link BucketFormat} header; an existing one must carry
+     * the same header to be appended to.
+     *
+     * @author Weinan Jimmy Michael
+     */
+    private static class BucketWriter {
+
+        // Number of index and zone entries buffered before they are written out
+        private static final int INDEX_BUFFER_ENTRIES = 256;
+
+        // Channel to the bucket file, positioned at its end
+        private final FileChannel channel;
+
+        // Append channel to the sparse index file
+        private final FileChannel indexChannel;
+
+        // Channel to the zone map file, positioned at its end
+        private final FileChannel zoneChannel;
+
+        // Inverted value index file, and the index being collected; NULL without indexed fields
+        private final Path invertedPath;
+        private final InvertedIndex.Builder inverted;
+
+        // Write buffer, drained to the channel when full or flushed
+        private final ByteBuffer buffer;
+
+        // Index write buffer, drained to the index channel when full or flushed
+        private final ByteBuffer indexBuffer;
+
+        // Zone write buffer, drained to the zone channel when full or flushed
+        private final ByteBuffer zoneBuffer;
+
+        // Size of the bucket header, i.e. offset of the first record
+        private final int headerSize;
+
+        // Width of one record in bytes
+        private final int recordWidth;
+
+        // Whether each field is a float, by ordinal
+        private final boolean[] floats;
+
+        // Write an index entry for every this many records, also the zone map block size
+        private final int indexInterval;
+
+        // Number of records in the bucket, including buffered ones
+        private int records;
+
+        // Number of records in the buffer not yet written to the channel
+        private int pendingRecords;
+
+        // Number of records written to the channel, published to readers
+        private final AtomicInteger committed;
+
+        // Minimum and maximum of each field in the current zone map block, and its number of records
+        private final int[] blockMin;
+        private final int[] blockMax;
+        private int blockRecords;
+
+        public BucketWriter(Path path, Path indexPath, Path zonePath, Path invertedPath, byte[] header, int recordWidth,
+                            boolean[] floats, int[] invertedOrdinals, int bufferSize, int indexInterval,
+                            AtomicInteger committed) throws IOException {
+            this.channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            this.indexChannel = FileChannel.open(indexPath,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+            this.zoneChannel = FileChannel.open(zonePath,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            this.headerSize = header.length;
+            this.recordWidth = recordWidth;
+            this.floats = floats;
+            this.indexInterval = indexInterval;
+            this.buffer = ByteBuffer.allocate(Math.max(bufferSize, recordWidth));
+            this.indexBuffer = ByteBuffer.allocate(INDEX_BUFFER_ENTRIES * SparseIndex.ENTRY_WIDTH);
+            this.zoneBuffer = ByteBuffer.allocate(INDEX_BUFFER_ENTRIES * ZoneMap.entryWidth(floats.length));
+            this.blockMin = new int[floats.length];
+            this.blockMax = new int[floats.length];
+            this.blockRecords = 0;
+            this.pendingRecords = 0;
+            this.invertedPath = invertedPath;
+            this.inverted = invertedOrdinals.length == 0 ? null : new InvertedIndex.Builder(invertedOrdinals);
+
+            if (this.channel.size() == 0) {
+                ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+                while (headerBuffer.hasRemaining())
+                    this.channel.write(headerBuffer);
+            } else {
+                ByteBuffer existing = ByteBuffer.allocate(header.length);
+                while (existing.hasRemaining() && this.channel.read(existing, existing.position()) > 0);
+                if (!ByteBuffer.wrap(header).equals(existing.flip())) {
+                    this.channel.close();
+                    this.indexChannel.close();
+                    this.zoneChannel.close();
+                    throw new RuntimeException("Bucket " + path + " was written with a different schema");
+                }
+            }
+
+            // Append to whatever is in the bucket already
+            this.channel.position(this.channel.size());
+            this.records = (int) ((this.channel.size() - header.length) / recordWidth);
+            this.committed = committed;
+            this.committed.set(this.records);
+
+            // The bucket is no longer sealed, its inverted index is collected anew
+            Files.deleteIfExists(this.invertedPath);
+            this.replay(this.openZones());
+        }
+
+        /**
+         * Get the zone map file ready to append to. It must hold an entry for
+         * every complete block already in the bucket; any entry of a trailing
+         * partial block is dropped and that block is summarized again from its
+         * records. A missing file, one with too few entries or with another block
+         * size is rebuilt from the records.
+         *
+         * @return ordinal of the first record the zone file does not cover
+         * @throws IOException
+         */
+        private int openZones() throws IOException {
+            int completeBlocks = this.records / this.indexInterval;
+            long completeSize = ZoneMap.HEADER_WIDTH + (long) completeBlocks * ZoneMap.entryWidth(this.floats.length);
+
+            ByteBuffer blockSize = ByteBuffer.allocate(ZoneMap.HEADER_WIDTH);
+            while (blockSize.hasRemaining() && this.zoneChannel.read(blockSize, blockSize.position()) > 0);
+            boolean intact = !blockSize.hasRemaining() && blockSize.getInt(0) == this.indexInterval
+                    && this.zoneChannel.size() >= completeSize;
+
+            int from;
+            if (intact) {
+                this.zoneChannel.truncate(completeSize);
+                from = completeBlocks * this.indexInterval;
+            } else {
+                this.zoneChannel.truncate(0);
+                blockSize.clear();
+                blockSize.putInt(this.indexInterval).flip();
+                while (blockSize.hasRemaining())
+                    this.zoneChannel.write(blockSize, blockSize.position());
+                from = 0;
+            }
+            this.zoneChannel.position(this.zoneChannel.size());
+            return from;
+        }
+
+        /**
+         * Go through the records already in the bucket: summarize the ones the
+         * zone file does not cover, and add all of them to the inverted index.
+         *
+         * @param zonesFrom ordinal of the first record the zone file does not cover
+         * @throws IOException
+         */
+        private void replay(int zonesFrom) throws IOException {
+            int record = this.inverted == null ? zonesFrom : 0;
+            ByteBuffer existing = ByteBuffer.allocate(Math.max(this.buffer.capacity() / this.recordWidth, 1) * this.recordWidth);
+            long position = this.headerSize + (long) record * this.recordWidth;
+            long end = this.headerSize + (long) this.records * this.recordWidth;
+            while (position < end) {
+                existing.clear();
+                existing.limit((int) Math.min(existing.capacity(), end - position));
+                while (existing.hasRemaining() && this.channel.read(existing, position + existing.position()) > 0);
+                existing.flip();
+                position += existing.limit();
+                while (existing.remaining() >= this.recordWidth) {
+                    int start = existing.position();
+                    if (this.inverted != null) {
+                        int[] ordinals = this.inverted.getOrdinals();
+                        for (int i = 0; i < ordinals.length; i++)
+                            this.inverted.add(i, existing.getInt(start + ordinals[i] * BucketFormat.FIELD_WIDTH));
+                        this.inverted.endRecord();
+                    }
+                    if (record >= zonesFrom) {
+                        for (int ordinal = 0; ordinal < this.floats.length; ordinal++)
+                            this.summarize(ordinal, existing.getInt(start + ordinal * BucketFormat.FIELD_WIDTH));
+                        this.endRecord();
+                    }
+                    existing.position(start + this.recordWidth);
+                    record++;
+                }
+            }
+        }
+
+        /**
+         * Buffer one record, flushing first if it does not fit.
+         *
+         * @param measurement
+         * @throws IOException
+         */
+        public void write(Measurement measurement) throws IOException {
+            if (this.recordWidth > this.buffer.remaining())
+                this.flush();
+
+            if (this.records % this.indexInterval == 0) {
+                if (!this.indexBuffer.hasRemaining())
+                    this.flush();
+                SparseIndex.writeEntry(this.indexBuffer, measurement.getTimeInMilliseconds(), this.records);
+            }
+
+            measurement.writeTo(this.buffer);
+            this.records++;
+            this.pendingRecords++;
+
+            for (int ordinal = 0; ordinal < this.floats.length; ordinal++)
+                this.summarize(ordinal, measurement.getInt(ordinal));
+            this.endRecord();
+
+            if (this.inverted != null) {
+                int[] ordinals = this.inverted.getOrdinals();
+                for (int i = 0; i < ordinals.length; i++)
+                    this.inverted.add(i, measurement.getInt(ordinals[i]));
+                this.inverted.endRecord();
+            }
+        }
+
+        /**
+         * Take one field value of a record into the current zone map block.
+         *
+         * @param ordinal ordinal of the field
+         * @param value raw value
+         */
+        private void summarize(int ordinal, int value) {
+            if (this.blockRecords == 0 || ZoneMap.compare(this.floats[ordinal], value, this.blockMin[ordinal]) < 0)
+                this.blockMin[ordinal] = value;
+            if (this.blockRecords == 0 || ZoneMap.compare(this.floats[ordinal], value, this.blockMax[ordinal]) > 0)
+                this.blockMax[ordinal] = value;
+        }
+
+        /**
+         * Count a summarized record, writing out the zone map entry of its block
+         * once the block is complete.
+         *
+         * @throws IOException
+         */
+        private void endRecord() throws IOException {
+            this.blockRecords++;
+            if (this.blockRecords == this.indexInterval) {
+                this.writeZone();
+                this.blockRecords = 0;
+            }
+        }
+
+        private void writeZone() throws IOException {
+            if (this.zoneBuffer.remaining() < ZoneMap.entryWidth(this.floats.length))
+                this.flush();
+            ZoneMap.writeEntry(this.zoneBuffer, this.blockRecords, this.blockMin, this.blockMax);
+        }
+
+        /**
+         * Write everything in the buffers to the channels. Records go first and
+         * are published to readers before the index and zone map, so an entry
+         * of either never points past the records readers can see.
+         *
+         * @throws IOException
+         */
+        public void flush() throws IOException {
+            drain(this.buffer, this.channel);
+            this.committed.set(this.records);
+            drain(this.indexBuffer, this.indexChannel);
+            drain(this.zoneBuffer, this.zoneChannel);
+            this.pendingRecords = 0;
+        }
+
+        /**
+         * Flush and close the channels, sealing the bucket. A trailing partial
+         * block gets its zone map entry here, so a sealed bucket is summarized
+         * completely, and the inverted index is written. It goes to a temporary
+         * file first, so readers see either no index or a complete one.
+         *
+         * @throws IOException
+         */
+        public void close() throws IOException {
+            // The channels are closed even if writing out the rest fails
+            try {
+                if (this.blockRecords > 0)
+                    this.writeZone();
+                this.flush();
+            } finally {
+                this.channel.close();
+                this.indexChannel.close();
+                this.zoneChannel.close();
+            }
+
+            if (this.inverted != null) {
+                Path temporaryPath = Paths.get(this.invertedPath + TMP_FILE_SUFFIX);
+                Files.write(temporaryPath, this.inverted.encode());
+                Files.move(temporaryPath, this.invertedPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+
+        public int getPendingRecords() {
+            return pendingRecords;
+        }
+
+        private static void drain(ByteBuffer source, FileChannel target) throws IOException {
+            source.flip();
+            while (source.hasRemaining())
+                target.write(source);
+            source.clear();
+        }
+    }
 }
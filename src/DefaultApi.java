@@ -1,35 +1,57 @@
-import java.util.Optional;
-import java.util.stream.Stream;
-
 /**
  * The default implementation of the {@link Api}.
  *
+ * The state of every session lives in its {@link ReadSession},
+ * {@link SearchSession} or {@link QuerySession}, so sessions opened through
+ * {@link #openRead}, {@link #openSearch} and {@link #openQuery} run
+ * concurrently without any locking here. The
+ * session-less methods ({@link #search}, {@link #read} and friends) keep one
+ * default session of each kind per source and are synchronized on it.
+ *
  * @author Weinan Jimmy Michael
  */
 public class DefaultApi implements Api {
 
-    // the singleton instance
-    private static DefaultApi instance;
+    // one instance per source, by source id
+    private static DefaultApi[] instances;
+
+    // id of the source this instance queries, see Config#getSources()
+    private final int source;
+
+    // the default search session. If not null,
+    // subsequent searches should continue from it.
+    private SearchSession searchSession = null;
 
-    // the cached time index match from the last search
-    // operation. If not null, subsequent searches should
-    // start from here.
-    private TimeIndex lastTimeIndex = null;
+    // the default read session. If not null,
+    // subsequent reads should continue from where it is.
+    private ReadSession readSession = null;
 
-    // the cached measurements from the last read operation.
-    // If not null, subsequent reads should try to deplete
-    // this first.
-    private Queue readBuffer = null;
+    private DefaultApi(int source) {
+        this.source = source;
+    }
 
     /**
-     * Get the singleton of this Api.
+     * Get the instance of this Api querying the first (or only) source.
      *
-     * @return the singleton instance.
+     * @return the instance.
      */
     public static DefaultApi getInstance() {
-        if (null == instance)
-            instance = new DefaultApi();
-        return instance;
+        return getInstance(0);
+    }
+
+    /**
+     * Get the instance of this Api querying the given source.
+     *
+     * @param source source id, see {@link Config#getSources()}
+     * @return the instance.
+     */
+    public static synchronized DefaultApi getInstance(int source) {
+        if (null == instances) {
+            instances = new DefaultApi[Config.getInstance().getSources().length];
+            for (int i = 0; i < instances.length; i++)
+                instances[i] = new DefaultApi(i);
+        }
+        return instances[source];
     }
 
     @Override
@@ -53,148 +75,232 @@ public class DefaultApi implements Api {
     }
 
     @Override
-    public TimeIndex search(String fieldName, String value) throws NoMoreDataException {
-        // Assuming this is the first search call of the session, start from bucket 0.
-        long startBucket = 0L;
-
-        // If this is actually not the first search call, adjust starting bucket to the
-        // bucket of the cached hit since we shall start from there.
-        if (lastTimeIndex != null) {
-            startBucket = Hash.getInstance().getBucketIndex(lastTimeIndex.getTimeInMilliseconds());
-        }
+    public SearchSession openSearch(String fieldName, String value) {
+        // Reading restores the bucket layout of an earlier capture, if there is one
+        DataReader.getInstance(this.source);
+        return new SearchSession(this.source, fieldName, value);
+    }
 
-        // Do the search from the starting bucket to the last bucket available
-        for (long bucketIndex = startBucket; bucketIndex <= Hash.getInstance().getLastBucketIndex(); bucketIndex++) {
-            try {
-                // Ask DataReader to get a stream of string based lines from the data bucket
-                Stream<String> data = DataReader.getInstance().readFromData((int) bucketIndex);
-
-                // We first create a Measurement object from each line
-                // Then we filter out any measurement that happened prior to the last hit
-                // In case this is the first search call of the session, we filter out nothing.
-                // Then we find the first hit where the measurement matches the provided criteria.
-                Optional<Measurement> result = data.map(Measurement::new)
-                        .filter(measurement -> {
-                            if (lastTimeIndex == null)
-                                return true;
-                            return measurement.getTimeInMilliseconds() > lastTimeIndex.getTimeInMilliseconds();
-                        })
-                        .filter(measurement -> measurement.matches(fieldName, value))
-                        .findFirst();
-
-                // If there is actually a hit, we cache the hit time index and return it.
-                if (result.isPresent()) {
-                    lastTimeIndex = new TimeIndex(result.get().getTimeInMilliseconds());
-                    return lastTimeIndex;
-                }
-            } catch (Exception ex) {
-                throw new RuntimeException(ex);
-            }
-        }
+    @Override
+    public synchronized TimeIndex search(String fieldName, String value) throws NoMoreDataException {
+        // Continue the default session, or start a new one for new criteria
+        if (this.searchSession == null || !this.searchSession.isFor(fieldName, value))
+            this.searchSession = this.openSearch(fieldName, value);
 
-        // If we are ever here, the search must have ended and we have no hit.
-        // We should end this search session and report no hit by throwing the exception.
-        this.endSearch();
-        throw new NoMoreDataException();
+        // If the session has no more hits, end it and report it by throwing the exception.
+        try {
+            return this.searchSession.next();
+        } catch (NoMoreDataException ex) {
+            this.endSearch();
+            throw ex;
+        }
     }
 
     @Override
-    public void endSearch() {
-        this.lastTimeIndex = null;
+    public synchronized void endSearch() {
+        this.searchSession = null;
     }
 
     @Override
-    public Page read(TimeIndex startTime, TimeIndex endTime, String[] fields) throws NoMoreDataException {
-        // Do not allow end time to be prior to start time
-        if (endTime.getTimeInMilliseconds() < startTime.getTimeInMilliseconds())
-            throw new NoMoreDataException();
+    public ReadSession openRead(TimeIndex startTime, TimeIndex endTime, String[] fields) {
+        // Reading restores the bucket layout of an earlier capture, if there is one
+        DataReader.getInstance(this.source);
 
         // Sanitize the time range, if they are beyond the time range of the data collected,
-        // make them the range of the data collected.
-        startTime = new TimeIndex(Math.max(startTime.getTimeInMilliseconds(), Hash.getInstance().getStartMillisecond()));
-        endTime = new TimeIndex(Math.min(endTime.getTimeInMilliseconds(), Hash.getInstance().getEndMillisecond()));
+        // make them the range of the data collected. A range with the end time prior to
+        // the start time gives an empty session.
+        if (Hash.getInstance().isStarted() && endTime.getTimeInMilliseconds() >= startTime.getTimeInMilliseconds()) {
+            startTime = new TimeIndex(Math.max(startTime.getTimeInMilliseconds(), Hash.getInstance().getStartMillisecond()));
+            endTime = new TimeIndex(Math.min(endTime.getTimeInMilliseconds(), Hash.getInstance().getEndMillisecond()));
+        }
+        return new ReadSession(this.source, startTime, endTime, fields);
+    }
 
-        // Call inner method to perform the real read function.
-        return this.readInner(startTime, endTime, fields);
+    @Override
+    public Aggregation aggregate(TimeIndex startTime, TimeIndex endTime, String fieldName, long interval, String[] functions) {
+        Config.CompiledSchema schema = Config.getInstance().getCompiledSchema();
+        int ordinal = schema.ordinalOf(fieldName);
+        if (ordinal < 0)
+            throw new RuntimeException("Unrecognized field: " + fieldName);
+        boolean floating = schema.getType(ordinal) == Config.CompiledSchema.TYPE_FLOAT;
+        Aggregation aggregation = new Aggregation(fieldName, !floating, interval, functions);
+
+        // Aggregating restores the bucket layout of an earlier capture, if there is one
+        DataReader reader = DataReader.getInstance(this.source);
+        if (!Hash.getInstance().isStarted() || endTime.getTimeInMilliseconds() < startTime.getTimeInMilliseconds())
+            return aggregation;
+
+        // Sanitize the time range the same way as for reading
+        long start = Math.max(startTime.getTimeInMilliseconds(), Hash.getInstance().getStartMillisecond());
+        long end = Math.min(endTime.getTimeInMilliseconds(), Hash.getInstance().getEndMillisecond());
+
+        try {
+            // Nothing has been written after the latest record. If that is within
+            // the range, the range may as well be open ended, which lets a tier
+            // window that reaches past its end be used as a whole.
+            long latest = this.latestTime(reader, start);
+            long to = latest <= end ? Long.MAX_VALUE : end + 1;
+
+            // Resolutions of the rollup tiers whose windows fit in the aggregation
+            // windows, coarsest first. A tier is only read once it is needed.
+            long[] tiers = Config.getInstance().getRollupTiers();
+            int usable = 0;
+            for (long tier : tiers) {
+                if (interval % tier == 0)
+                    usable++;
+            }
+            long[] resolutions = new long[usable];
+            for (int i = tiers.length - 1, j = 0; i >= 0; i--) {
+                if (interval % tiers[i] == 0)
+                    resolutions[j++] = tiers[i];
+            }
+
+            this.aggregate(aggregation, reader, ordinal, floating, resolutions, new Rollup[usable], 0, start, to, latest);
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+        return aggregation;
     }
 
     /**
-     * The internal read function that performs on sanitized fields.
-     *
-     * @param startTime sanitized start time, within data time range, lte to endTime
-     * @param endTime sanitized end time, within data time range, gte to startTime
-     * @param fields fields to be rendered
+     * Aggregate the time range [from, to) using the rollup tiers from the given
+     * one on. The coarsest tier covering any whole windows of its own in the
+     * range answers for those; what is left on either side goes to the finer
+     * tiers, and in the end to the records themselves.
      *
-     * @return a page of measurement
-     *
-     * @throws NoMoreDataException thrown when there are no more measurement that fits criteria
+     * @param aggregation aggregation to add to
+     * @param reader reader of the source
+     * @param ordinal ordinal of the aggregated field
+     * @param floating whether the field is a float
+     * @param resolutions resolutions of the usable rollup tiers, coarsest first
+     * @param rollups the tiers read so far, by position in resolutions
+     * @param tier first tier to try
+     * @param from start of the range, inclusive
+     * @param to end of the range, exclusive
+     * @param latest time of the latest record written, see {@link #latestTime}
+     * @throws Exception
      */
-    private Page readInner(TimeIndex startTime, TimeIndex endTime, String[] fields) throws NoMoreDataException {
-
-        // If this is not the first read function within the session, we already
-        // have results buffered from the last session, pack those into the page.
-        if (this.readBuffer != null) {
-            // Initialize page
-            Page page = new Page(Api.PAGE_SIZE);
-
-            // Dequeue the size of a page from the buffer and added to the page, stop
-            // when buffer is empty (don't dry draw).
-            for (int i = Api.PAGE_SIZE; i > 0 && this.readBuffer.getSize() > 0; i--) {
-                page.add((Measurement) this.readBuffer.dequeue());
-            }
+    private void aggregate(Aggregation aggregation, DataReader reader, int ordinal, boolean floating,
+                           long[] resolutions, Rollup[] rollups, int tier, long from, long to, long latest) throws Exception {
+        if (from >= to || from > latest)
+            return;
+        for (; tier < resolutions.length; tier++) {
+            // Skip the tier without reading it if no whole window of it fits
+            long resolution = resolutions[tier];
+            long first = from + Math.floorMod(-from, resolution);
+            long last = to - Math.floorMod(to, resolution);
+            if (first >= last)
+                continue;
 
-            // If the buffer didn't give us any data (meaning the last read function left it
-            // empty already), end this read session and tell the user there are no more
-            // data by throwing the exception.
-            if (page.getSize() == 0) {
-                this.endRead();
-                throw new NoMoreDataException();
+            if (null == rollups[tier])
+                rollups[tier] = reader.readRollup(resolution);
+            Rollup rollup = rollups[tier];
+            first = Math.max(first, rollup.getCoveredFrom());
+            last = Math.min(last, rollup.getCoveredUntil());
+            if (first < last) {
+                this.aggregate(aggregation, reader, ordinal, floating, resolutions, rollups, tier + 1, from, first, latest);
+                for (int entry = rollup.ceiling(first); entry < rollup.getSize() && rollup.getWindowStart(entry) < last; entry++) {
+                    aggregation.add(rollup.getWindowStart(entry), rollup.getCount(entry), rollup.getMin(entry, ordinal),
+                            rollup.getMax(entry, ordinal), rollup.getSum(entry, ordinal));
+                }
+                this.aggregate(aggregation, reader, ordinal, floating, resolutions, rollups, tier + 1, last, to, latest);
+                return;
             }
+        }
+        this.scan(aggregation, reader, ordinal, floating, from, Math.min(to - 1, latest));
+    }
 
-            return page;
+    /**
+     * Find the time of the latest record written, i.e. of the last record of
+     * the last bucket holding any.
+     *
+     * @param reader reader of the source
+     * @param start time before which records do not matter
+     * @return time of the latest record, Long.MIN_VALUE if there is none from the start time on
+     * @throws Exception
+     */
+    private long latestTime(DataReader reader, long start) throws Exception {
+        Hash hash = Hash.getInstance();
+        long firstBucket = Math.max(0, hash.getBucketIndex(start));
+        for (long bucket = hash.getLastBucketIndex(); bucket >= firstBucket; bucket--) {
+            RecordCursor cursor = reader.openData((int) bucket);
+            if (cursor.getCount() > 0) {
+                cursor.seek(cursor.getCount() - 1);
+                return cursor.getTimeInMilliseconds();
+            }
         }
+        return Long.MIN_VALUE;
+    }
 
-        // If this is actually the first read function in the session.
-        else {
-            // Initialize the buffer.
-            this.readBuffer = new Queue();
-
-            // Determine the bucket range by hashing the start and end timestamp
-            long startBucket = Hash.getInstance().getBucketIndex(startTime.getTimeInMilliseconds());
-            long endBucket = Hash.getInstance().getBucketIndex(endTime.getTimeInMilliseconds());
-
-            // Traverse all the buckets in range
-            for (long bucket = startBucket; bucket <= endBucket; bucket++) {
-                try {
-                    // Ask DataReader to get all data in the current bucket
-                    Stream<String> lines = DataReader.getInstance().readFromData((int) bucket);
-
-                    // For each line of data, create a Measurement out of it first.
-                    // Next, filter out any measurement that is out of the requested time range
-                    // After that, set the render fields on the measurement. This will help
-                    // measurement determine how to render()
-                    // Finally, add the measurement to the buffer queue.
-                    lines.map(Measurement::new)
-                            .filter(m -> m.getTimeInMilliseconds() <= endTime.getTimeInMilliseconds() &&
-                                    m.getTimeInMilliseconds() >= startTime.getTimeInMilliseconds()
-                            ).forEach(measurement -> {
-                        measurement.setRenderFields(fields);
-                        readBuffer.enqueue(measurement);
-                    });
-                } catch (Exception ex) {
-                    throw new RuntimeException(ex);
+    /**
+     * Aggregate the records in the time range [start, end] in one pass, reading
+     * only the time fields and the aggregated field of each, in place.
+     *
+     * @param aggregation aggregation to add to
+     * @param reader reader of the source
+     * @param ordinal ordinal of the aggregated field
+     * @param floating whether the field is a float
+     * @param start start of the range, inclusive
+     * @param end end of the range, inclusive
+     * @throws Exception
+     */
+    private void scan(Aggregation aggregation, DataReader reader, int ordinal, boolean floating,
+                      long start, long end) throws Exception {
+        long endBucket = Hash.getInstance().getBucketIndex(end);
+        for (long bucket = Math.max(0, Hash.getInstance().getBucketIndex(start)); bucket <= endBucket; bucket++) {
+            RecordCursor cursor = reader.openData((int) bucket);
+            SparseIndex index = reader.readIndex((int) bucket);
+            int stopRecord = Math.min(index.ceiling(end), cursor.getCount());
+            cursor.seek(Math.min(index.floor(start), stopRecord));
+            while (cursor.getPosition() < stopRecord) {
+                long time = cursor.getTimeInMilliseconds();
+                if (time >= start && time <= end) {
+                    int raw = cursor.getInt(ordinal);
+                    aggregation.add(time, floating ? Float.intBitsToFloat(raw) : raw);
                 }
+                cursor.skip();
             }
+        }
+    }
+
+    @Override
+    public QuerySession openQuery(TimeIndex startTime, TimeIndex endTime, Filter filter, String[] fields) {
+        // Querying restores the bucket layout of an earlier capture, if there is one
+        DataReader.getInstance(this.source);
+
+        // Sanitize the time range the same way as for reading
+        if (Hash.getInstance().isStarted() && endTime.getTimeInMilliseconds() >= startTime.getTimeInMilliseconds()) {
+            startTime = new TimeIndex(Math.max(startTime.getTimeInMilliseconds(), Hash.getInstance().getStartMillisecond()));
+            endTime = new TimeIndex(Math.min(endTime.getTimeInMilliseconds(), Hash.getInstance().getEndMillisecond()));
+        }
+        return new QuerySession(this.source, startTime, endTime, filter, fields);
+    }
 
-            // Now we have all measurement that meets the criteria in the buffer queue.
-            // Instead of padding the first page here, we can trick self into thinking
-            // it is not the first read function call and let it fill the page. DRY!
-            return this.readInner(startTime, endTime, fields);
+    @Override
+    public synchronized Page read(TimeIndex startTime, TimeIndex endTime, String[] fields) throws NoMoreDataException {
+        // Do not allow end time to be prior to start time
+        if (endTime.getTimeInMilliseconds() < startTime.getTimeInMilliseconds())
+            throw new NoMoreDataException();
+
+        // If this is the first read function in the session, open the session. It
+        // does not read anything yet, it only knows where to start.
+        if (this.readSession == null)
+            this.readSession = this.openRead(startTime, endTime, fields);
+
+        // Decode the next page worth of data from where the last page left off.
+        // If the session has no more data (meaning the last read function reached the
+        // end of the range already), end this read session and tell the user there
+        // are no more data by throwing the exception.
+        try {
+            return this.readSession.next();
+        } catch (NoMoreDataException ex) {
+            this.endRead();
+            throw ex;
         }
     }
 
     @Override
-    public void endRead() {
-        this.readBuffer = null;
+    public synchronized void endRead() {
+        this.readSession = null;
     }
 }
@@ -0,0 +1,275 @@
+/**
+ * A comparison of one field of a record with a value, parsed once into the
+ * type of the field so that the scan loop only compares primitives. The
+ * comparison is kept as an inclusive range of values: an integer field is in
+ * range when its value lies in [intLow, intHigh], a float field when it lies
+ * in [floatLow, floatHigh]. A record matches when its value is in range, or
+ * for "!=" when it is not.
+ *
+ * Equality on a float field allows the values within
+ * {@link Config#getSearchFloatTolerance()} of the given one. On an integer
+ * field the value is taken as a number, so "21" and "21.0" find the same
+ * records while "21.5" finds none, and "&lt; 21.5" finds 21.
+ *
+ * A predicate on a field the schema does not have, or with a value that is not
+ * a number, matches nothing.
+ *
+ * @author Weinan Jimmy Michael
+ */
+public class FieldPredicate {
+
+    // Comparison operators
+    public static final String OP_EQUAL = "=";
+    public static final String OP_NOT_EQUAL = "!=";
+    public static final String OP_LESS = "<";
+    public static final String OP_LESS_OR_EQUAL = "<=";
+    public static final String OP_GREATER = ">";
+    public static final String OP_GREATER_OR_EQUAL = ">=";
+
+    // Ordinal of the field
+    private final int ordinal;
+
+    // Whether the field is a float
+    private final boolean floating;
+
+    // Whether the field and value were understood, if not nothing matches
+    private final boolean valid;
+
+    // Whether a record matches when its value is out of range, i.e. "!="
+    private final boolean negated;
+
+    // Range of values of an integer field, inclusive
+    private final int intLow;
+    private final int intHigh;
+
+    // Range of values of a float field, inclusive
+    private final float floatLow;
+    private final float floatHigh;
+
+    private FieldPredicate(int ordinal, boolean floating, boolean valid, boolean negated,
+                           int intLow, int intHigh, float floatLow, float floatHigh) {
+        this.ordinal = ordinal;
+        this.floating = floating;
+        this.valid = valid;
+        this.negated = negated;
+        this.intLow = intLow;
+        this.intHigh = intHigh;
+        this.floatLow = floatLow;
+        this.floatHigh = floatHigh;
+    }
+
+    private static FieldPredicate invalid() {
+        return new FieldPredicate(0, false, false, false, 1, 0, 1f, 0f);
+    }
+
+    /**
+     * Create a predicate for a field being equal to a value, using the
+     * configured float tolerance.
+     *
+     * @param schema compiled schema of the records
+     * @param fieldName name of the field
+     * @param value the value, as the user typed it
+     * @return
+     */
+    public static FieldPredicate equalTo(Config.CompiledSchema schema, String fieldName, String value) {
+        return compare(schema, fieldName, OP_EQUAL, value);
+    }
+
+    /**
+     * Create a predicate comparing a field with a value, using the configured
+     * float tolerance.
+     *
+     * @param schema compiled schema of the records
+     * @param fieldName name of the field
+     * @param op one of the OP_* operators
+     * @param value the value, as the user typed it
+     * @return
+     */
+    public static FieldPredicate compare(Config.CompiledSchema schema, String fieldName, String op, String value) {
+        return compare(schema, fieldName, op, value, Config.getInstance().getSearchFloatTolerance());
+    }
+
+    /**
+     * Create a predicate comparing a field with a value.
+     *
+     * @param schema compiled schema of the records
+     * @param fieldName name of the field
+     * @param op one of the OP_* operators
+     * @param value the value, as the user typed it
+     * @param tolerance how far a float value may be off and still be equal
+     * @return
+     */
+    public static FieldPredicate compare(Config.CompiledSchema schema, String fieldName, String op, String value, float tolerance) {
+        if (!OP_EQUAL.equals(op) && !OP_NOT_EQUAL.equals(op) && !OP_LESS.equals(op)
+                && !OP_LESS_OR_EQUAL.equals(op) && !OP_GREATER.equals(op) && !OP_GREATER_OR_EQUAL.equals(op))
+            throw new RuntimeException("Unrecognized operator: " + op);
+
+        int ordinal = schema.ordinalOf(fieldName);
+        if (ordinal < 0)
+            return invalid();
+
+        boolean negated = OP_NOT_EQUAL.equals(op);
+        try {
+            if (schema.getType(ordinal) == Config.CompiledSchema.TYPE_FLOAT) {
+                float parsed = Float.parseFloat(value.trim());
+                if (Float.isNaN(parsed))
+                    return invalid();
+
+                float low = Float.NEGATIVE_INFINITY;
+                float high = Float.POSITIVE_INFINITY;
+                switch (op) {
+                    case OP_LESS:
+                        high = parsed == Float.NEGATIVE_INFINITY ? Float.NaN : Math.nextDown(parsed);
+                        break;
+                    case OP_LESS_OR_EQUAL:
+                        high = parsed;
+                        break;
+                    case OP_GREATER:
+                        low = parsed == Float.POSITIVE_INFINITY ? Float.NaN : Math.nextUp(parsed);
+                        break;
+                    case OP_GREATER_OR_EQUAL:
+                        low = parsed;
+                        break;
+                    default:
+                        low = parsed - tolerance;
+                        high = parsed + tolerance;
+                }
+                return new FieldPredicate(ordinal, true, true, negated, 1, 0, low, high);
+            }
+
+            double parsed = Double.parseDouble(value.trim());
+            if (Double.isNaN(parsed))
+                return invalid();
+
+            // Values beyond the int range compare the same as one past its ends,
+            // and keep the rounding below from overflowing
+            parsed = Math.max(Integer.MIN_VALUE - 1L, Math.min(parsed, Integer.MAX_VALUE + 1L));
+
+            long low = Integer.MIN_VALUE;
+            long high = Integer.MAX_VALUE;
+            switch (op) {
+                case OP_LESS:
+                    high = (long) Math.ceil(parsed) - 1;
+                    break;
+                case OP_LESS_OR_EQUAL:
+                    high = (long) Math.floor(parsed);
+                    break;
+                case OP_GREATER:
+                    low = (long) Math.floor(parsed) + 1;
+                    break;
+                case OP_GREATER_OR_EQUAL:
+                    low = (long) Math.ceil(parsed);
+                    break;
+                default:
+                    low = (long) Math.ceil(parsed);
+                    high = (long) Math.floor(parsed);
+            }
+            low = Math.max(low, Integer.MIN_VALUE);
+            high = Math.min(high, Integer.MAX_VALUE);
+            if (low > high)
+                return new FieldPredicate(ordinal, false, true, negated, 1, 0, 1f, 0f);
+            return new FieldPredicate(ordinal, false, true, negated, (int) low, (int) high, 1f, 0f);
+        } catch (NumberFormatException ex) {
+            return invalid();
+        }
+    }
+
+    /**
+     * Whether the record at the current position of the cursor matches. The
+     * record is not decoded and the cursor does not move.
+     *
+     * @param cursor
+     * @return
+     */
+    public boolean matches(RecordCursor cursor) {
+        return this.valid && this.inRange(cursor.getInt(this.ordinal)) != this.negated;
+    }
+
+    /**
+     * Whether the measurement matches.
+     *
+     * @param measurement
+     * @return
+     */
+    public boolean matches(Measurement measurement) {
+        return this.valid && this.inRange(measurement.getInt(this.ordinal)) != this.negated;
+    }
+
+    private boolean inRange(int raw) {
+        if (this.floating) {
+            float value = Float.intBitsToFloat(raw);
+            return value >= this.floatLow && value <= this.floatHigh;
+        }
+        return raw >= this.intLow && raw <= this.intHigh;
+    }
+
+    /**
+     * Whether any record of a bucket may match, judging by its zone map. Only
+     * meaningful when the zone map covers the bucket, see {@link ZoneMap#covers(int)}.
+     * A "!=" predicate may always match.
+     *
+     * @param zones
+     * @return
+     */
+    public boolean mayMatch(ZoneMap zones) {
+        if (!this.isSatisfiable())
+            return false;
+        return this.negated || zones.mayContain(this.ordinal, this.rawLow(), this.rawHigh());
+    }
+
+    /**
+     * Whether any record of a block may match, judging by its zone map. Only
+     * meaningful when the zone map covers the block, see {@link ZoneMap#covers(int, int)}.
+     * A "!=" predicate may always match.
+     *
+     * @param zones
+     * @param block
+     * @return
+     */
+    public boolean mayMatch(ZoneMap zones, int block) {
+        if (!this.isSatisfiable())
+            return false;
+        return this.negated || zones.mayContain(block, this.ordinal, this.rawLow(), this.rawHigh());
+    }
+
+    // Zone maps order floats by Float.compare, which puts -0.0 below 0.0 while
+    // the scan treats them as equal; widening the float range by one step keeps
+    // both in it.
+    private int rawLow() {
+        return this.floating ? Float.floatToRawIntBits(Math.nextDown(this.floatLow)) : this.intLow;
+    }
+
+    private int rawHigh() {
+        return this.floating ? Float.floatToRawIntBits(Math.nextUp(this.floatHigh)) : this.intHigh;
+    }
+
+    /**
+     * Whether this is an integer field being equal to a single value, the
+     * kind of predicate an {@link InvertedIndex} answers.
+     *
+     * @return
+     */
+    public boolean isIntegerEquality() {
+        return this.valid && !this.floating && !this.negated && this.intLow == this.intHigh;
+    }
+
+    public int getOrdinal() {
+        return ordinal;
+    }
+
+    public int getIntValue() {
+        return intLow;
+    }
+
+    /**
+     * Whether any record can match at all.
+     *
+     * @return
+     */
+    public boolean isSatisfiable() {
+        if (!this.valid)
+            return false;
+        boolean empty = this.floating ? !(this.floatLow <= this.floatHigh) : this.intLow > this.intHigh;
+        return this.negated || !empty;
+    }
+}
@@ -0,0 +1,192 @@
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A compound condition on the fields of a record: {@link FieldPredicate}s
+ * joined by AND and OR, where AND binds tighter than OR. It is compiled into
+ * groups of predicates, a record matching when all predicates of any group
+ * match, so evaluating it is a couple of loops over arrays and never
+ * allocates.
+ *
+ * A filter is built either with a {@link Builder}:
+ *
+ *     new Filter.Builder().where("temperature", ">", "30").and("pressure", "<", "1000")
+ *             .or("humidity", ">=", "80").build()
+ *
+ * or parsed from the same condition in text (see {@link #parse(String)}):
+ *
+ *     temperature > 30 AND pressure < 1000 OR humidity >= 80
+ *
+ * @author Weinan Jimmy Michael
+ */
+public class Filter {
+
+    // One comparison in text: field name, operator, value
+    private static final Pattern COMPARISON = Pattern.compile("\\s*([A-Za-z0-9_]+)\\s*(<=|>=|!=|==|=|<|>)\\s*(\\S+)\\s*");
+
+    // Groups of predicates, all predicates of a group must match
+    private final FieldPredicate[][] groups;
+
+    private Filter(FieldPredicate[][] groups) {
+        this.groups = groups;
+    }
+
+    /**
+     * Parse a condition: comparisons "field op value" joined by AND and OR
+     * (case does not matter), op being one of = != &lt; &lt;= &gt; &gt;=.
+     * Parentheses are not supported; AND binds tighter than OR.
+     *
+     * @param condition the condition, as the user typed it
+     * @return
+     */
+    public static Filter parse(String condition) {
+        Builder builder = new Builder();
+        String[] alternatives = condition.trim().split("(?i)\\s+OR\\s+");
+        for (String alternative : alternatives) {
+            String[] comparisons = alternative.split("(?i)\\s+AND\\s+");
+            for (int i = 0; i < comparisons.length; i++) {
+                Matcher matcher = COMPARISON.matcher(comparisons[i]);
+                if (!matcher.matches())
+                    throw new RuntimeException("Unrecognized condition: " + comparisons[i].trim());
+                String op = "==".equals(matcher.group(2)) ? FieldPredicate.OP_EQUAL : matcher.group(2);
+                if (i == 0)
+                    builder.or(matcher.group(1), op, matcher.group(3));
+                else
+                    builder.and(matcher.group(1), op, matcher.group(3));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Whether the record at the current position of the cursor matches. The
+     * record is not decoded and the cursor does not move.
+     *
+     * @param cursor
+     * @return
+     */
+    public boolean matches(RecordCursor cursor) {
+        for (FieldPredicate[] group : this.groups) {
+            int i = 0;
+            while (i < group.length && group[i].matches(cursor))
+                i++;
+            if (i == group.length)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Whether any record of a bucket may match, judging by its zone map. Only
+     * meaningful when the zone map covers the bucket, see {@link ZoneMap#covers(int)}.
+     *
+     * @param zones
+     * @return
+     */
+    public boolean mayMatch(ZoneMap zones) {
+        for (FieldPredicate[] group : this.groups) {
+            int i = 0;
+            while (i < group.length && group[i].mayMatch(zones))
+                i++;
+            if (i == group.length)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Whether any record of a block may match, judging by its zone map. Only
+     * meaningful when the zone map covers the block, see {@link ZoneMap#covers(int, int)}.
+     *
+     * @param zones
+     * @param block
+     * @return
+     */
+    public boolean mayMatch(ZoneMap zones, int block) {
+        for (FieldPredicate[] group : this.groups) {
+            int i = 0;
+            while (i < group.length && group[i].mayMatch(zones, block))
+                i++;
+            if (i == group.length)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Whether any record can match at all.
+     *
+     * @return
+     */
+    public boolean isSatisfiable() {
+        for (FieldPredicate[] group : this.groups) {
+            int i = 0;
+            while (i < group.length && group[i].isSatisfiable())
+                i++;
+            if (i == group.length)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Builds a {@link Filter} one comparison at a time. {@link #and} adds to the
+     * current group, {@link #or} starts a new one; {@link #where} is the same
+     * as {@link #or} and reads better for the first comparison.
+     */
+    public static class Builder {
+
+        // Groups so far, each a LinkedList of FieldPredicate
+        private final LinkedList groups;
+
+        // Group the next and() adds to
+        private LinkedList current;
+
+        // Schema to compile the comparisons against
+        private final Config.CompiledSchema schema;
+
+        public Builder() {
+            this.groups = new LinkedList();
+            this.schema = Config.getInstance().getCompiledSchema();
+        }
+
+        public Builder where(String fieldName, String op, String value) {
+            return this.or(fieldName, op, value);
+        }
+
+        public Builder and(String fieldName, String op, String value) {
+            if (null == this.current)
+                return this.or(fieldName, op, value);
+            this.current.addLast(FieldPredicate.compare(this.schema, fieldName, op, value));
+            return this;
+        }
+
+        public Builder or(String fieldName, String op, String value) {
+            this.current = new LinkedList();
+            this.current.addLast(FieldPredicate.compare(this.schema, fieldName, op, value));
+            this.groups.addLast(this.current);
+            return this;
+        }
+
+        /**
+         * Compile the comparisons into a filter. A filter without any
+         * comparison matches every record.
+         *
+         * @return
+         */
+        public Filter build() {
+            if (this.groups.getSize() == 0)
+                return new Filter(new FieldPredicate[][] { new FieldPredicate[0] });
+            FieldPredicate[][] compiled = new FieldPredicate[this.groups.getSize()][];
+            int i = 0;
+            for (Object group : this.groups) {
+                compiled[i] = new FieldPredicate[((LinkedList) group).getSize()];
+                int j = 0;
+                for (Object predicate : (LinkedList) group)
+                    compiled[i][j++] = (FieldPredicate) predicate;
+                i++;
+            }
+            return new Filter(compiled);
+        }
+    }
+}
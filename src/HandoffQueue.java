@@ -0,0 +1,93 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, lock-free queue for handing items from exactly one producer
+ * thread to exactly one consumer thread. It is a fixed ring of slots: the
+ * producer only moves the tail and the consumer only moves the head, so
+ * neither side ever takes a lock. A full queue rejects the offer and an
+ * empty queue returns NULL, leaving it to the caller to decide whether to
+ * wait, retry or drop.
+ *
+ * @author Weinan, Jimmy, Michael
+ */
+public class HandoffQueue {
+
+    // Ring of slots, the length is a power of two
+    private final Object[] items;
+
+    // items.length - 1, to turn a sequence number into a slot index
+    private final int mask;
+
+    // Sequence number of the next item to poll, only moved by the consumer
+    private final AtomicLong head;
+
+    // Sequence number of the next item to offer, only moved by the producer
+    private final AtomicLong tail;
+
+    /**
+     * Create a queue that holds at least the given number of items. The
+     * capacity is rounded up to the next power of two.
+     *
+     * @param capacity minimum capacity, must be positive
+     */
+    public HandoffQueue(int capacity) {
+        if (capacity < 1)
+            throw new RuntimeException("capacity must be positive");
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity)
+            size <<= 1;
+        this.items = new Object[size];
+        this.mask = size - 1;
+        this.head = new AtomicLong(0L);
+        this.tail = new AtomicLong(0L);
+    }
+
+    /**
+     * Offer an item to the queue. Must only be called by the producer thread.
+     *
+     * @param item the item, must not be null
+     * @return true if the item was queued, false if the queue is full
+     */
+    public boolean offer(Object item) {
+        if (item == null)
+            throw new RuntimeException("no data provided");
+        long tail = this.tail.get();
+        if (tail - this.head.get() == this.items.length)
+            return false;
+        this.items[(int) (tail & this.mask)] = item;
+        // publish the item to the consumer
+        this.tail.lazySet(tail + 1);
+        return true;
+    }
+
+    /**
+     * Poll an item from the queue. Must only be called by the consumer thread.
+     *
+     * @return the item at the head, or NULL if the queue is empty
+     */
+    public Object poll() {
+        long head = this.head.get();
+        if (head == this.tail.get())
+            return null;
+        int slot = (int) (head & this.mask);
+        Object item = this.items[slot];
+        this.items[slot] = null;
+        // hand the slot back to the producer
+        this.head.lazySet(head + 1);
+        return item;
+    }
+
+    /**
+     * Number of items in the queue. Safe to call from any thread, the
+     * result is a snapshot.
+     *
+     * @return
+     */
+    public int getSize() {
+        return (int) (this.tail.get() - this.head.get());
+    }
+
+    public int getCapacity() {
+        return this.items.length;
+    }
+}
@@ -1,39 +1,97 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 /**
  * This is created to hash time measurements into the
  * the corresponding data buckets. It constructs the correlation
  * between a time index and a data bucket index. It determines where
  * to write and read a specified frame of data.
  *
+ * How time is split into buckets is set by {@link Config#getBucketMode()}:
+ * - count: the record window is split into a fixed number of equally long
+ *   buckets, {@link Config#getBucketCount()}
+ * - duration: every bucket covers a fixed amount of time,
+ *   {@link Config#getBucketDuration()}. Suits unbounded capture, where the
+ *   buckets act as rolling time partitioned segments
+ * - adaptive: a new bucket is started once the current one holds
+ *   {@link Config#getBucketMaxRecords()} records, so buckets stay about the
+ *   same size however fast data arrives.
+ *
+ * In duration and adaptive mode the start time of every bucket written so
+ * far is kept, in order. Adaptive mode needs it to map a time back to its
+ * bucket, duration mode to know the latest bucket without a fixed end.
+ *
+ * The mapping is persisted next to the data (see {@link #encode()}) so the
+ * buckets can be found again after a restart.
+ *
+ * Catalog layout:
+ * - magic (int) "A6H1"
+ * - mode (byte), bucket parameter (long), start and end time (long)
+ * - number of bucket start times (int), followed by those times (long)
+ *
  * @author Weinan Jimmy Michael
  */
 public class Hash {
 
-    // Let's have 10 data buckets. Ideally this is configurable, but
-    // for the purpose of A6, this seems fair for ~300 frames of data
-    // with each data bucket containing ~30 frames of data.
-    private static long NUM_BUCKETS = 10L;
+    // Magic number at the start of the bucket catalog, "A6H1" in ASCII
+    private static final int MAGIC = 0x41364831;
+
+    // Mode codes written in the catalog
+    private static final byte MODE_CODE_COUNT = 0;
+    private static final byte MODE_CODE_DURATION = 1;
+    private static final byte MODE_CODE_ADAPTIVE = 2;
 
     // Singleton instance
     private static Hash instance = null;
 
+    // One of the Config.BUCKET_MODE_* values
+    private String mode;
+
+    // Number of buckets in count mode, bucket duration in duration mode,
+    // records per bucket in adaptive mode
+    private long parameter;
+
     // Start timestamp of the collected data frames
     private Long startMillisecond;
 
     // End timestamp of the collected data frames
     private Long endMillisecond;
 
+    // Duration and adaptive mode: start timestamp of each bucket written, ascending
+    private long[] bucketStarts;
+    private int bucketCount;
+
+    // Adaptive mode: records assigned to the last bucket, and the latest of their timestamps
+    private long lastBucketRecords;
+    private long lastBucketTime;
+
     /**
      * Private constructor. Default timestamp to the range of long
      * so they start by containing everything.
      */
-    private Hash() {
+    private Hash(String mode, long parameter) {
+        this.mode = mode;
+        this.parameter = parameter;
         this.startMillisecond = Long.MIN_VALUE;
         this.endMillisecond = Long.MAX_VALUE;
+        this.bucketStarts = new long[16];
+        this.bucketCount = 0;
     }
 
-    public static Hash getInstance() {
-        if (null == instance)
-            instance = new Hash();
+    public static synchronized Hash getInstance() {
+        if (null == instance) {
+            Config config = Config.getInstance();
+            switch (config.getBucketMode()) {
+                case Config.BUCKET_MODE_DURATION:
+                    instance = new Hash(Config.BUCKET_MODE_DURATION, config.getBucketDuration());
+                    break;
+                case Config.BUCKET_MODE_ADAPTIVE:
+                    instance = new Hash(Config.BUCKET_MODE_ADAPTIVE, config.getBucketMaxRecords());
+                    break;
+                default:
+                    instance = new Hash(Config.BUCKET_MODE_COUNT, config.getBucketCount());
+            }
+        }
         return instance;
     }
 
@@ -46,49 +104,191 @@ public class Hash {
     }
 
     /**
-     * Express helper to return the last bucket index, which is 10-1=9 since
-     * bucket index is 0 based.
+     * Express helper to return the last bucket index. That is the last of the
+     * fixed number of buckets in count mode, and the latest bucket started
+     * in duration and adaptive mode.
      *
      * @return
      */
-    public long getLastBucketIndex() {
-        return NUM_BUCKETS - 1L;
+    public synchronized long getLastBucketIndex() {
+        switch (this.mode) {
+            case Config.BUCKET_MODE_COUNT:
+                return this.parameter - 1L;
+            case Config.BUCKET_MODE_DURATION:
+                return this.bucketCount == 0 ? 0L : this.getBucketIndex(this.bucketStarts[this.bucketCount - 1]);
+            default:
+                return Math.max(0, this.bucketCount - 1);
+        }
     }
 
     /**
      * Main hash method. Transform the timestamp to a specified bucket index.
-     * This index is determined by the size of the interval.
+     * In count and duration mode this index is determined by the size of the
+     * interval, in adaptive mode it is the last bucket started at or before
+     * the timestamp. Only looks buckets up, see {@link #assign(long)} for
+     * placing a new frame.
+     *
+     * @param timeInMillisecond
+     * @return
+     */
+    public synchronized long getBucketIndex(long timeInMillisecond) {
+        if (!Config.BUCKET_MODE_ADAPTIVE.equals(this.mode))
+            return (timeInMillisecond - this.startMillisecond) / getInterval();
+
+        int found = Arrays.binarySearch(this.bucketStarts, 0, this.bucketCount, timeInMillisecond);
+        if (found < 0)
+            found = -found - 2;
+        return Math.max(0, found);
+    }
+
+    /**
+     * Determine the bucket a newly collected frame goes to. Frames of a source
+     * must be assigned in time order; sources may lag behind one another. In
+     * duration mode this records the start of a bucket the first time it is
+     * written to. In adaptive mode it starts a new bucket when the current one
+     * is full; a bucket only rolls over between two distinct timestamps, so
+     * frames sharing a timestamp always share a bucket. A frame from before the
+     * start of the current bucket, i.e. from a lagging source, goes to the
+     * earlier bucket its time falls in, where lookups will find it.
      *
      * @param timeInMillisecond
      * @return
      */
-    public long getBucketIndex(Long timeInMillisecond) {
-        return (timeInMillisecond - this.startMillisecond) / getInterval();
+    public synchronized long assign(long timeInMillisecond) {
+        if (Config.BUCKET_MODE_COUNT.equals(this.mode))
+            return this.getBucketIndex(timeInMillisecond);
+
+        if (Config.BUCKET_MODE_DURATION.equals(this.mode)) {
+            long index = this.getBucketIndex(timeInMillisecond);
+            if (this.bucketCount == 0 || index > this.getBucketIndex(this.bucketStarts[this.bucketCount - 1]))
+                this.addBucket(this.startMillisecond + index * this.parameter);
+            return index;
+        }
+
+        if (this.bucketCount == 0) {
+            this.addBucket(Math.min(this.startMillisecond, timeInMillisecond));
+        } else if (timeInMillisecond < this.bucketStarts[this.bucketCount - 1]) {
+            return this.getBucketIndex(timeInMillisecond);
+        } else if (this.lastBucketRecords >= this.parameter && timeInMillisecond > this.lastBucketTime) {
+            this.addBucket(timeInMillisecond);
+        }
+        this.lastBucketRecords++;
+        this.lastBucketTime = Math.max(this.lastBucketTime, timeInMillisecond);
+        return this.bucketCount - 1;
+    }
+
+    private void addBucket(long start) {
+        if (this.bucketCount == this.bucketStarts.length)
+            this.bucketStarts = Arrays.copyOf(this.bucketStarts, this.bucketStarts.length * 2);
+        this.bucketStarts[this.bucketCount++] = start;
+        this.lastBucketRecords = 0L;
+        this.lastBucketTime = start;
     }
 
     /**
-     * Helper to get the timestamp interval between buckets. We add 1 to take
-     * care of fraction problems.
+     * Helper to get the timestamp interval between buckets in count and
+     * duration mode. In count mode we add 1 to take care of fraction problems.
      *
      * @return
      */
     public long getInterval() {
-        return 1 + (this.endMillisecond - this.startMillisecond) / NUM_BUCKETS;
+        if (Config.BUCKET_MODE_DURATION.equals(this.mode))
+            return this.parameter;
+        return 1 + (this.endMillisecond - this.startMillisecond) / this.parameter;
+    }
+
+    /**
+     * Number of buckets started so far in duration and adaptive mode, 0 in
+     * count mode. Lets the writer know when the catalog has changed.
+     *
+     * @return
+     */
+    public synchronized int getBucketCount() {
+        return this.bucketCount;
+    }
+
+    /**
+     * Encode the bucket catalog, i.e. everything needed to map a time to its bucket.
+     *
+     * @return catalog bytes
+     */
+    public synchronized byte[] encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 1 + 8 + 8 + 8 + 4 + 8 * this.bucketCount);
+        buffer.putInt(MAGIC);
+        buffer.put(modeCode(this.mode));
+        buffer.putLong(this.parameter);
+        buffer.putLong(this.startMillisecond);
+        buffer.putLong(this.endMillisecond);
+        buffer.putInt(this.bucketCount);
+        for (int i = 0; i < this.bucketCount; i++)
+            buffer.putLong(this.bucketStarts[i]);
+        return buffer.array();
+    }
+
+    /**
+     * Restore the bucket catalog written by {@link #encode()}, replacing the
+     * configured bucket layout with the one the data was written with.
+     *
+     * @param buffer catalog content
+     */
+    public synchronized void decode(ByteBuffer buffer) {
+        if (buffer.remaining() < 4 + 1 + 8 + 8 + 8 + 4 || buffer.getInt() != MAGIC)
+            throw new RuntimeException("Not a bucket catalog");
+        this.mode = modeOf(buffer.get());
+        this.parameter = buffer.getLong();
+        this.startMillisecond = buffer.getLong();
+        this.endMillisecond = buffer.getLong();
+        this.bucketCount = 0;
+        for (int i = buffer.getInt(); i > 0; i--)
+            this.addBucket(buffer.getLong());
+    }
+
+    private static byte modeCode(String mode) {
+        switch (mode) {
+            case Config.BUCKET_MODE_COUNT:
+                return MODE_CODE_COUNT;
+            case Config.BUCKET_MODE_DURATION:
+                return MODE_CODE_DURATION;
+            default:
+                return MODE_CODE_ADAPTIVE;
+        }
+    }
+
+    private static String modeOf(byte code) {
+        switch (code) {
+            case MODE_CODE_COUNT:
+                return Config.BUCKET_MODE_COUNT;
+            case MODE_CODE_DURATION:
+                return Config.BUCKET_MODE_DURATION;
+            case MODE_CODE_ADAPTIVE:
+                return Config.BUCKET_MODE_ADAPTIVE;
+            default:
+                throw new RuntimeException("Unrecognized bucket mode: " + code);
+        }
+    }
+
+    /**
+     * Whether the time range has been set, i.e. there is data to look up.
+     *
+     * @return
+     */
+    public synchronized boolean isStarted() {
+        return this.startMillisecond != Long.MIN_VALUE;
     }
 
-    public Long getStartMillisecond() {
+    public synchronized Long getStartMillisecond() {
         return startMillisecond;
     }
 
-    public void setStartMillisecond(Long startMillisecond) {
+    public synchronized void setStartMillisecond(Long startMillisecond) {
         this.startMillisecond = startMillisecond;
     }
 
-    public Long getEndMillisecond() {
+    public synchronized Long getEndMillisecond() {
         return endMillisecond;
     }
 
-    public void setEndMillisecond(Long endMillisecond) {
+    public synchronized void setEndMillisecond(Long endMillisecond) {
         this.endMillisecond = endMillisecond;
     }
 }
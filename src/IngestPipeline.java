@@ -0,0 +1,216 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Staged ingest pipeline that decouples receiving frames from writing them.
+ * The receiver (the thread calling {@link #submit(Measurement[])}) hands
+ * batches over a bounded {@link HandoffQueue} to a dedicated writer thread,
+ * which echoes them (see {@link ConsoleEcho}) and writes them through
+ * {@link DataWriter}. A disk stall
+ * therefore only fills the queue instead of stopping the receiver from
+ * draining the socket.
+ *
+ * When the queue is full the receiver either waits for room
+ * ({@link Config#INGEST_OVERFLOW_BLOCK}) or drops the batch
+ * ({@link Config#INGEST_OVERFLOW_DROP}). Both are counted, together with the
+ * queue depth, so backpressure is visible.
+ *
+ * @author Weinan, Jimmy, Michael
+ */
+public class IngestPipeline {
+
+    // How long the receiver parks when it has to wait for room in the queue
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    // Marker telling the writer there are no more batches
+    private static final Measurement[] END = new Measurement[0];
+
+    // Handoff between receiver and writer
+    private final HandoffQueue queue;
+
+    // Whether to drop batches instead of waiting when the queue is full
+    private final boolean dropWhenFull;
+
+    // The writer thread
+    private final Thread writer;
+
+    // Console output of the writer thread
+    private final ConsoleEcho echo;
+
+    // Backpressure metrics
+    private final AtomicLong batchesWritten;
+    private final AtomicLong recordsWritten;
+    private final AtomicLong stalls;
+    private final AtomicLong stallNanos;
+    private final AtomicLong drops;
+    private final AtomicLong writeNanos;
+    private volatile int maxDepth;
+
+    // First error hit by the writer thread, if any
+    private volatile Throwable failure;
+
+    public IngestPipeline(int capacity, String overflow, String echoMode, int echoSampleEvery, long echoStatusInterval) {
+        this.queue = new HandoffQueue(capacity);
+        this.dropWhenFull = Config.INGEST_OVERFLOW_DROP.equals(overflow);
+        this.batchesWritten = new AtomicLong(0L);
+        this.recordsWritten = new AtomicLong(0L);
+        this.stalls = new AtomicLong(0L);
+        this.stallNanos = new AtomicLong(0L);
+        this.drops = new AtomicLong(0L);
+        this.writeNanos = new AtomicLong(0L);
+        this.maxDepth = 0;
+        this.writer = new Thread(this::drain, "a6-writer");
+        this.echo = new ConsoleEcho(System.out, echoMode, echoSampleEvery, echoStatusInterval, this);
+    }
+
+    /**
+     * Start the writer thread.
+     */
+    public void start() {
+        this.writer.start();
+    }
+
+    /**
+     * Hand a batch over to the writer. The caller must not touch the batch
+     * afterwards. Must only be called from the receiver thread.
+     *
+     * @param batch measurements in time order
+     * @return whether the batch was taken, false if it was dropped
+     */
+    public boolean submit(Measurement[] batch) {
+        this.checkFailure();
+        if (this.queue.offer(batch)) {
+            this.maxDepth = Math.max(this.maxDepth, this.queue.getSize());
+            this.wakeWriter();
+            return true;
+        }
+
+        if (this.dropWhenFull) {
+            this.drops.incrementAndGet();
+            return false;
+        }
+
+        // Queue is full, wait for the writer to catch up
+        long stalledAt = System.nanoTime();
+        this.stalls.incrementAndGet();
+        while (!this.queue.offer(batch)) {
+            this.checkFailure();
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+        this.stallNanos.addAndGet(System.nanoTime() - stalledAt);
+        this.maxDepth = Math.max(this.maxDepth, this.queue.getSize());
+        this.wakeWriter();
+        return true;
+    }
+
+    /**
+     * Tell the writer there are no more batches and wait until it has
+     * written everything. Rethrows any error the writer ran into.
+     *
+     * @throws InterruptedException
+     */
+    public void finish() throws InterruptedException {
+        while (!this.queue.offer(END)) {
+            this.checkFailure();
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+        this.wakeWriter();
+        this.writer.join();
+        this.checkFailure();
+    }
+
+    /**
+     * Wake the writer up in case it is parked waiting for a batch. If it is
+     * not parked, its next park returns right away instead.
+     */
+    private void wakeWriter() {
+        LockSupport.unpark(this.writer);
+    }
+
+    /**
+     * Writer thread loop: take batches off the queue until the end marker.
+     * With the queue empty it parks until {@link #submit(Measurement[])} or
+     * {@link #finish()} wakes it, so an idle capture costs no CPU.
+     */
+    private void drain() {
+        try {
+            while (true) {
+                Measurement[] batch = (Measurement[]) this.queue.poll();
+                if (batch == null) {
+                    LockSupport.park(this);
+                    continue;
+                }
+                if (batch == END)
+                    return;
+
+                // Print out data on console as configured
+                this.echo.echo(batch);
+
+                // Write the batch to the appropriate buckets
+                long writeStart = System.nanoTime();
+                DataWriter.getInstance().writeToData(batch, batch.length);
+                long writeTime = System.nanoTime() - writeStart;
+                this.batchesWritten.incrementAndGet();
+                this.recordsWritten.addAndGet(batch.length);
+                this.writeNanos.addAndGet(writeTime);
+                this.echo.written(batch.length, writeTime);
+            }
+        } catch (Throwable ex) {
+            this.failure = ex;
+        }
+    }
+
+    private void checkFailure() {
+        if (this.failure != null)
+            throw new RuntimeException("Write data failed: " + this.failure.getMessage(), this.failure);
+    }
+
+    public int getDepth() {
+        return this.queue.getSize();
+    }
+
+    public int getCapacity() {
+        return this.queue.getCapacity();
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public long getBatchesWritten() {
+        return batchesWritten.get();
+    }
+
+    public long getRecordsWritten() {
+        return recordsWritten.get();
+    }
+
+    public long getStalls() {
+        return stalls.get();
+    }
+
+    public long getStallMilliseconds() {
+        return TimeUnit.NANOSECONDS.toMillis(stallNanos.get());
+    }
+
+    public long getDrops() {
+        return drops.get();
+    }
+
+    public long getWriteMilliseconds() {
+        return TimeUnit.NANOSECONDS.toMillis(writeNanos.get());
+    }
+
+    /**
+     * One line report of the pipeline metrics.
+     *
+     * @return
+     */
+    public String report() {
+        return String.format("batches=%d records=%d queue_depth=%d max_queue_depth=%d/%d stalls=%d stall_ms=%d drops=%d write_ms=%d",
+                this.getBatchesWritten(), this.getRecordsWritten(), this.getDepth(), this.getMaxDepth(),
+                this.getCapacity(), this.getStalls(), this.getStallMilliseconds(), this.getDrops(),
+                this.getWriteMilliseconds());
+    }
+}
@@ -0,0 +1,336 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Inverted value index of one data bucket: for every value of an indexed
+ * integer field (see {@link Config#getInvertedIndexFields()}), the ordinals
+ * of the records holding it. Looking up a value reads its directory entry
+ * and its own list of records only, so finding all occurrences of a value
+ * costs in proportion to the number of hits rather than the bucket size.
+ *
+ * {@link DataWriter} collects the lists while a bucket is written (see
+ * {@link Builder}) and writes the index when the bucket is sealed, i.e. when
+ * its writer is closed. A bucket that is still being written has no index.
+ *
+ * Index file layout:
+ * - magic (int) "A6I1", number of records indexed (int), number of fields (int)
+ * - per field: its ordinal (int) and number of distinct values (int)
+ * - per field, per value in ascending order: the value (int), number of
+ *   records (int) and offset of its record list in the file (int)
+ * - the record lists: ascending record ordinals, each as the difference to
+ *   the previous one (to -1 for the first) in unsigned LEB128 varint encoding
+ *
+ * @author Weinan Jimmy Michael
+ */
+public class InvertedIndex {
+
+    // Magic number at the start of an index file, "A6I1" in ASCII
+    private static final int MAGIC = 0x41364931;
+
+    // Width of the file header and of one directory entry in bytes
+    private static final int HEADER_WIDTH = 4 + 4 + 4;
+    private static final int FIELD_WIDTH = 4 + 4;
+    private static final int DIRECTORY_ENTRY_WIDTH = 4 + 4 + 4;
+
+    // Content of the index file
+    private final ByteBuffer buffer;
+
+    // Number of records indexed, i.e. the bucket size when the index was written
+    private final int records;
+
+    // Ordinal, number of values and directory offset of each indexed field
+    private final int[] ordinals;
+    private final int[] valueCounts;
+    private final int[] directories;
+
+    private InvertedIndex(ByteBuffer buffer, int records, int[] ordinals, int[] valueCounts, int[] directories) {
+        this.buffer = buffer;
+        this.records = records;
+        this.ordinals = ordinals;
+        this.valueCounts = valueCounts;
+        this.directories = directories;
+    }
+
+    /**
+     * Open an index on the content of an index file. Only the header is read
+     * here; record lists are read on lookup.
+     *
+     * @param buffer content of the index file, e.g. a memory mapping of it
+     * @return
+     */
+    public static InvertedIndex parse(ByteBuffer buffer) {
+        if (buffer.limit() < HEADER_WIDTH || buffer.getInt(0) != MAGIC)
+            throw new RuntimeException("Not an inverted index");
+        int records = buffer.getInt(4);
+        int fields = buffer.getInt(8);
+        int[] ordinals = new int[fields];
+        int[] valueCounts = new int[fields];
+        int[] directories = new int[fields];
+        int directory = HEADER_WIDTH + fields * FIELD_WIDTH;
+        for (int i = 0; i < fields; i++) {
+            ordinals[i] = buffer.getInt(HEADER_WIDTH + i * FIELD_WIDTH);
+            valueCounts[i] = buffer.getInt(HEADER_WIDTH + i * FIELD_WIDTH + 4);
+            directories[i] = directory;
+            directory += valueCounts[i] * DIRECTORY_ENTRY_WIDTH;
+        }
+        return new InvertedIndex(buffer, records, ordinals, valueCounts, directories);
+    }
+
+    /**
+     * Whether the index holds the given field.
+     *
+     * @param ordinal ordinal of the field
+     * @return
+     */
+    public boolean has(int ordinal) {
+        for (int indexed : this.ordinals) {
+            if (indexed == ordinal)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Get the ordinals of the records where a field holds a value.
+     *
+     * @param ordinal ordinal of the field, must be indexed (see {@link #has(int)})
+     * @param value the value
+     * @return record ordinals, ascending; empty if no record holds the value
+     */
+    public int[] lookup(int ordinal, int value) {
+        int field = 0;
+        while (this.ordinals[field] != ordinal)
+            field++;
+
+        // Binary-search the directory of the field for the value
+        int low = 0;
+        int high = this.valueCounts[field] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int entry = this.directories[field] + mid * DIRECTORY_ENTRY_WIDTH;
+            int found = this.buffer.getInt(entry);
+            if (found < value) {
+                low = mid + 1;
+            } else if (found > value) {
+                high = mid - 1;
+            } else {
+                return this.decode(this.buffer.getInt(entry + 4), this.buffer.getInt(entry + 8));
+            }
+        }
+        return new int[0];
+    }
+
+    private int[] decode(int count, int offset) {
+        int[] records = new int[count];
+        int position = offset;
+        int record = -1;
+        for (int i = 0; i < count; i++) {
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = this.buffer.get(position++);
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            record += delta;
+            records[i] = record;
+        }
+        return records;
+    }
+
+    public int getRecords() {
+        return records;
+    }
+
+    /**
+     * Collects the record lists of a bucket while it is written, already in
+     * their encoded form, and encodes the index file when it is done.
+     */
+    public static class Builder {
+
+        // Ordinals of the fields to index
+        private final int[] ordinals;
+
+        // Record lists of each field by value, by position in ordinals
+        private final PostingsTable[] postings;
+
+        // Number of records added
+        private int records;
+
+        public Builder(int[] ordinals) {
+            this.ordinals = ordinals;
+            this.postings = new PostingsTable[ordinals.length];
+            for (int i = 0; i < ordinals.length; i++)
+                this.postings[i] = new PostingsTable();
+            this.records = 0;
+        }
+
+        /**
+         * Add a value of the record being added, for one of the indexed fields.
+         *
+         * @param field position of the field in {@link #getOrdinals()}
+         * @param value raw value of the field
+         */
+        public void add(int field, int value) {
+            this.postings[field].get(value).add(this.records);
+        }
+
+        /**
+         * Move on to the next record, once all its indexed values are added.
+         */
+        public void endRecord() {
+            this.records++;
+        }
+
+        /**
+         * Encode the index file for the records added so far.
+         *
+         * @return index file content
+         */
+        public byte[] encode() {
+            int[][] values = new int[this.ordinals.length][];
+            int size = HEADER_WIDTH + this.ordinals.length * FIELD_WIDTH;
+            for (int i = 0; i < this.ordinals.length; i++) {
+                values[i] = this.postings[i].values();
+                for (int value : values[i])
+                    size += DIRECTORY_ENTRY_WIDTH + this.postings[i].get(value).length;
+                Arrays.sort(values[i]);
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(size);
+            buffer.putInt(MAGIC);
+            buffer.putInt(this.records);
+            buffer.putInt(this.ordinals.length);
+            for (int i = 0; i < this.ordinals.length; i++) {
+                buffer.putInt(this.ordinals[i]);
+                buffer.putInt(values[i].length);
+            }
+
+            // Directories first, then the record lists they point to
+            int offset = buffer.position();
+            for (int[] fieldValues : values)
+                offset += fieldValues.length * DIRECTORY_ENTRY_WIDTH;
+            for (int i = 0; i < this.ordinals.length; i++) {
+                for (int value : values[i]) {
+                    Postings list = this.postings[i].get(value);
+                    buffer.putInt(value);
+                    buffer.putInt(list.count);
+                    buffer.putInt(offset);
+                    offset += list.length;
+                }
+            }
+            for (int i = 0; i < this.ordinals.length; i++) {
+                for (int value : values[i]) {
+                    Postings list = this.postings[i].get(value);
+                    buffer.put(list.bytes, 0, list.length);
+                }
+            }
+            return buffer.array();
+        }
+
+        public int[] getOrdinals() {
+            return ordinals;
+        }
+    }
+
+    /**
+     * Record lists of one field by value: an open addressing hash table keyed
+     * by the raw int value, so adding a record neither boxes the value nor
+     * allocates, other than when a value is first seen or a list grows.
+     */
+    private static class PostingsTable {
+
+        // Values and their record lists, a NULL list marks a free slot
+        private int[] keys = new int[16];
+        private Postings[] lists = new Postings[16];
+
+        // Number of values
+        private int size = 0;
+
+        /**
+         * Get the record list of a value, adding an empty one if there is none.
+         */
+        Postings get(int value) {
+            int mask = this.keys.length - 1;
+            int slot = mix(value) & mask;
+            while (this.lists[slot] != null) {
+                if (this.keys[slot] == value)
+                    return this.lists[slot];
+                slot = (slot + 1) & mask;
+            }
+
+            if (2 * (this.size + 1) > this.keys.length) {
+                this.grow();
+                return this.get(value);
+            }
+            this.keys[slot] = value;
+            this.lists[slot] = new Postings();
+            this.size++;
+            return this.lists[slot];
+        }
+
+        /**
+         * All values in the table, in no particular order.
+         */
+        int[] values() {
+            int[] values = new int[this.size];
+            int i = 0;
+            for (int slot = 0; slot < this.keys.length; slot++) {
+                if (this.lists[slot] != null)
+                    values[i++] = this.keys[slot];
+            }
+            return values;
+        }
+
+        private void grow() {
+            int[] keys = this.keys;
+            Postings[] lists = this.lists;
+            this.keys = new int[keys.length * 2];
+            this.lists = new Postings[keys.length * 2];
+            int mask = this.keys.length - 1;
+            for (int i = 0; i < keys.length; i++) {
+                if (lists[i] == null)
+                    continue;
+                int slot = mix(keys[i]) & mask;
+                while (this.lists[slot] != null)
+                    slot = (slot + 1) & mask;
+                this.keys[slot] = keys[i];
+                this.lists[slot] = lists[i];
+            }
+        }
+
+        // Spread the bits of a value, so that nearby values do not cluster
+        private static int mix(int value) {
+            int h = value * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+
+    /**
+     * Record list of one value, delta and varint encoded as records are added.
+     */
+    private static class Postings {
+
+        // Encoded record list, and how much of it is in use
+        private byte[] bytes = new byte[8];
+        private int length = 0;
+
+        // Number of records, and the last one added
+        private int count = 0;
+        private int last = -1;
+
+        void add(int record) {
+            if (this.length + 5 > this.bytes.length)
+                this.bytes = Arrays.copyOf(this.bytes, this.bytes.length * 2);
+            int delta = record - this.last;
+            while ((delta & ~0x7F) != 0) {
+                this.bytes[this.length++] = (byte) ((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+            this.bytes[this.length++] = (byte) delta;
+            this.last = record;
+            this.count++;
+        }
+    }
+}
@@ -1,3 +1,6 @@
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 
@@ -9,7 +12,7 @@ import java.util.function.Predicate;
  *
  * @author Weinan Qiu
  */
-public class LinkedList {
+public class LinkedList implements Iterable<Object> {
 
     // We keep track of the head of the linked list,
     // so we can traverse from the start.
@@ -24,6 +27,10 @@ public class LinkedList {
     // down to O(1)
     private int size;
 
+    // We count structural modifications so iterators can
+    // fail fast when the list changes underneath them.
+    private int modCount;
+
     /**
      * Default constructor
      */
@@ -31,6 +38,41 @@ public class LinkedList {
         this.head = null;
         this.tail = null;
         this.size = 0;
+        this.modCount = 0;
+    }
+
+    /**
+     * Add a new piece of data as the head of the list in O(1). Throws
+     * {@link RuntimeException} if the provided data is null.
+     *
+     * @param data the data to be added to the list, must not be null.
+     */
+    public void addFirst(Object data) {
+        this.add(data, 0);
+    }
+
+    /**
+     * Add a new piece of data as the tail of the list in O(1). Throws
+     * {@link RuntimeException} if the provided data is null.
+     *
+     * @param data the data to be added to the list, must not be null.
+     */
+    public void addLast(Object data) {
+        this.add(data, this.size);
+    }
+
+    /**
+     * Remove the head of the list in O(1) and return its data. Throws
+     * {@link RuntimeException} when the list is empty.
+     *
+     * @return the data value of the removed head.
+     */
+    public Object removeFirst() {
+        if (this.size == 0)
+            throw new RuntimeException("index out of bounds");
+        Object data = this.head.getData();
+        this.remove(0);
+        return data;
     }
 
     /**
@@ -66,6 +108,10 @@ public class LinkedList {
             // Attach new element as predecessor of the current head if required position is 0
             if (pos == 0)
                 this.head.setPrevious(elem);
+                // (Or) attach new element as the successor of the tail if required position is size,
+                // no need to traverse for it since we keep track of the tail
+            else if (pos == this.size)
+                this.tail.setNext(elem);
                 // (Or) attach new element as the successor of the required position minus one
             else {
                 Element p = this.getElem(pos - 1);
@@ -84,6 +130,7 @@ public class LinkedList {
 
         // increment list size
         this.size++;
+        this.modCount++;
     }
 
     /**
@@ -119,6 +166,7 @@ public class LinkedList {
 
         // decrement list size
         this.size--;
+        this.modCount++;
     }
 
     /**
@@ -201,7 +249,8 @@ public class LinkedList {
      *
      * @param consumer operation logic performed on each traversed data value.
      */
-    public void forEach(Consumer<Object> consumer) {
+    @Override
+    public void forEach(Consumer<? super Object> consumer) {
         for (Element cur = this.head; cur != null; cur = cur.getNext()) {
             consumer.accept(cur.getData());
         }
@@ -219,6 +268,54 @@ public class LinkedList {
         }
     }
 
+    /**
+     * Iterate the list data values in sequence, so the list can be traversed in O(N)
+     * with a plain for-each loop. The iterator is fail-fast: it throws
+     * {@link ConcurrentModificationException} if the list is structurally modified
+     * after the iterator was created.
+     *
+     * @return an iterator from head to tail.
+     */
+    @Override
+    public Iterator<Object> iterator() {
+        return new ListIterator();
+    }
+
+    /**
+     * Fail-fast iterator from head to tail.
+     *
+     * @author Weinan Qiu
+     */
+    private class ListIterator implements Iterator<Object> {
+
+        // The element whose data is returned by the next call to next()
+        private Element cursor;
+
+        // The modification count of the list when this iterator was created
+        private final int expectedModCount;
+
+        public ListIterator() {
+            this.cursor = LinkedList.this.head;
+            this.expectedModCount = LinkedList.this.modCount;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.cursor != null;
+        }
+
+        @Override
+        public Object next() {
+            if (LinkedList.this.modCount != this.expectedModCount)
+                throw new ConcurrentModificationException();
+            if (this.cursor == null)
+                throw new NoSuchElementException();
+            Object data = this.cursor.getData();
+            this.cursor = this.cursor.getNext();
+            return data;
+        }
+    }
+
     /**
      * Element in the linked list. Serving as a wrapper for data value and provides
      * linking capabilities to other elements in order to form a list.
@@ -1,8 +1,5 @@
 public class Main {
 
-    // Five minute data record time
-    private static final Long RECORD_TIME_IN_MILLISECONDS =  5 * 60 * 1000L;
-
     /**
      * Entry point of the program
      *
@@ -17,8 +14,21 @@ public class Main {
             throw new Exception("No config file path provided");
         }
 
-        // Call server to collect data, collect summary stats and write to disk
-        DataCollector.getInstance().collectData(RECORD_TIME_IN_MILLISECONDS);
+        // Call server to collect data, collect summary stats and write to disk.
+        // Either wait for that to finish, or do it in the background and take
+        // queries over what has been written so far right away.
+        if (Config.getInstance().isQueryDuringIngest()) {
+            Thread collector = new Thread(() -> {
+                try {
+                    DataCollector.getInstance().collectData(Config.getInstance().getRecordTime());
+                } catch (Exception ex) {
+                    System.out.println("Collect data failed: " + ex.getMessage());
+                }
+            }, "a6-collector");
+            collector.start();
+        } else {
+            DataCollector.getInstance().collectData(Config.getInstance().getRecordTime());
+        }
 
         // Boot up the API for user query.
         Cli.getInstance().start();
@@ -1,11 +1,16 @@
+import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.stream.Collectors;
 
 /**
  * Container for the frame of data.
  *
+ * Field values are kept as primitive 4 byte values in an int array indexed by
+ * schema ordinal (see {@link Config.CompiledSchema}). Float fields are stored
+ * as their raw IEEE 754 bits, which is exactly how they travel over the wire
+ * and sit on disk, so reading and writing a frame is a plain copy. The
+ * timestamp is computed once when the frame is created.
+ *
  * @author Weinan Jimmy Michael
  */
 public class Measurement implements Renderable {
@@ -19,99 +24,159 @@ public class Measurement implements Renderable {
     // Required schema key for second
     public static final String SECOND = "second";
 
-    // Internal storage for the data
-    private final Map<String, Object> data;
+    // Schema the values are laid out by
+    private final Config.CompiledSchema schema;
+
+    // Internal storage for the data, field ordinal -> int value or float bits
+    private final int[] values;
+
+    // Cached timestamp of this frame
+    private final long timeInMilliseconds;
+
+    // Id of the data source this frame came from, see Config#getSources()
+    private int source;
 
     // Ephemeral array to assist rendering, tells render()
     // method which fields from data to include in rendering.
     private String[] renderFields;
 
     /**
-     * Constructor from a already parsed data dictionary. Makes sure
-     * all the required keys (i.e. hour, minute, second) is included.
+     * Constructor from raw field values, laid out by schema ordinal. Float
+     * fields are given as {@link Float#floatToRawIntBits(float)}. The schema
+     * guarantees the required keys (i.e. hour, minute, second) are included.
      *
-     * @param data
+     * @param values
      */
-    public Measurement(Map<String, Object> data) {
-        if (!data.containsKey(HOUR))
-            throw new RuntimeException("Measurement missing key: " + HOUR);
-        else if (!data.containsKey(MINUTE))
-            throw new RuntimeException("Measurement missing key: " + MINUTE);
-        else if (!data.containsKey(SECOND))
-            throw new RuntimeException("Measurement missing key: " + SECOND);
-        else
-            this.data = data;
+    public Measurement(int[] values) {
+        this.schema = Config.getInstance().getCompiledSchema();
+        if (values.length != this.schema.getSize())
+            throw new RuntimeException("Measurement has " + values.length + " fields, schema has " + this.schema.getSize());
+        this.values = values;
+        this.timeInMilliseconds = timeOf(this.schema, values);
+        this.source = 0;
     }
 
     /**
-     * Constructor from a line of data fetched from disk.
+     * Read one record in {@link BucketFormat} from the current position of the
+     * buffer. Fields are read in schema order and the buffer position is advanced
+     * by one record width.
      *
-     * @param raw
+     * @param buffer
+     * @return
      */
-    public Measurement(String raw) {
-        this.data = new HashMap<>();
-        Arrays.stream(raw.split(";")).forEach(s -> {
-            String name = s.split(":")[0];
-            String value = s.split(":")[1];
-            String type = ((Config.Schema) Config.getInstance().getSchema().find(o -> {
-                Config.Schema each = (Config.Schema) o;
-                return each.getName().equals(name);
-            })).getType();
-            switch (type) {
-                case Config.Schema.TYPE_INT:
-                    this.data.put(name, Integer.parseInt(value));
-                    break;
-
-                case Config.Schema.TYPE_FLOAT:
-                    this.data.put(name, Float.parseFloat(value));
-                    break;
-
-                default:
-                    throw new IllegalArgumentException("Unrecognized type: " + type);
-            }
-        });
+    public static Measurement readFrom(ByteBuffer buffer) {
+        int[] values = new int[Config.getInstance().getCompiledSchema().getSize()];
+        for (int ordinal = 0; ordinal < values.length; ordinal++)
+            values[ordinal] = buffer.getInt();
+        return new Measurement(values);
     }
 
     /**
-     * Get the timestamp for this measurement frame. It accounts for
+     * Compute the timestamp of a frame from its raw values. It accounts for
      * fractional second where second might be float.
      *
+     * @param schema
+     * @param values
      * @return
      */
-    public Long getTimeInMilliseconds() {
-        if (Integer.class.isInstance(data.get(SECOND))) {
-            return TimeIndex.of(
-                    (Integer) data.get(HOUR),
-                    (Integer) data.get(MINUTE),
-                    (Integer) data.get(SECOND)
-            ).getTimeInMilliseconds();
-        } else if (Float.class.isInstance(data.get(SECOND))) {
-            return TimeIndex.of(
-                    (Integer) data.get(HOUR),
-                    (Integer) data.get(MINUTE),
-                    (Float) data.get(SECOND)
-            ).getTimeInMilliseconds();
-        } else {
-            throw new RuntimeException("Unrecognized second type: " + data.get(SECOND).getClass().getName());
-        }
+    private static long timeOf(Config.CompiledSchema schema, int[] values) {
+        return timeOf(schema, values[schema.getHourOrdinal()], values[schema.getMinuteOrdinal()],
+                values[schema.getSecondOrdinal()]);
+    }
+
+    /**
+     * Compute the timestamp of a frame from the raw values of its time fields,
+     * e.g. as read by a {@link RecordCursor} without decoding the frame.
+     *
+     * @param schema
+     * @param hour raw value of the hour field
+     * @param minute raw value of the minute field
+     * @param second raw value of the second field, int or float bits
+     * @return
+     */
+    public static long timeOf(Config.CompiledSchema schema, int hour, int minute, int second) {
+        if (schema.getType(schema.getSecondOrdinal()) == Config.CompiledSchema.TYPE_INT)
+            return TimeIndex.toMilliseconds(hour, minute, second);
+        else
+            return TimeIndex.toMilliseconds(hour, minute, Float.intBitsToFloat(second));
+    }
+
+    /**
+     * Get the timestamp for this measurement frame.
+     *
+     * @return
+     */
+    public long getTimeInMilliseconds() {
+        return timeInMilliseconds;
+    }
+
+    /**
+     * Get the value of an integer field.
+     *
+     * @param ordinal ordinal of the field in the schema
+     * @return
+     */
+    public int getInt(int ordinal) {
+        return this.values[ordinal];
     }
 
-    public Map<String, Object> getData() {
-        return data;
+    /**
+     * Get the value of a float field.
+     *
+     * @param ordinal ordinal of the field in the schema
+     * @return
+     */
+    public float getFloat(int ordinal) {
+        return Float.intBitsToFloat(this.values[ordinal]);
     }
 
     /**
-     * Return the disk form of this frame of data. This is directly
-     * used to write to disk. Key-value are separated by semi-colon.
-     * Fields are separated by colon.
+     * Get the value of a field, boxed according to its type. Meant for
+     * presentation, not for scanning.
+     *
+     * @param ordinal ordinal of the field in the schema
+     * @return an Integer or a Float
+     */
+    public Number getValue(int ordinal) {
+        if (this.schema.getType(ordinal) == Config.CompiledSchema.TYPE_INT)
+            return this.getInt(ordinal);
+        else
+            return this.getFloat(ordinal);
+    }
+
+    /**
+     * Write this frame of data to the buffer in {@link BucketFormat}, i.e.
+     * every field as 4 bytes in schema order.
+     *
+     * @param buffer
+     */
+    public void writeTo(ByteBuffer buffer) {
+        for (int value : this.values)
+            buffer.putInt(value);
+    }
+
+    /**
+     * Return the text form of this frame of data, used for console output.
+     * Key-value are separated by semi-colon. Fields are separated by colon.
      *
      * @return
      */
     public String toString() {
-        return this.data.entrySet()
-                .stream()
-                .map(entry -> entry.getKey() + ":" + entry.getValue().toString())
-                .collect(Collectors.joining(";"));
+        StringBuilder sb = new StringBuilder();
+        for (int ordinal = 0; ordinal < this.values.length; ordinal++) {
+            if (ordinal > 0)
+                sb.append(';');
+            sb.append(this.schema.getName(ordinal)).append(':').append(this.getValue(ordinal));
+        }
+        return sb.toString();
+    }
+
+    public int getSource() {
+        return source;
+    }
+
+    public void setSource(int source) {
+        this.source = source;
     }
 
     public String[] getRenderFields() {
@@ -125,17 +190,16 @@ public class Measurement implements Renderable {
     /**
      * Determine whether the given name and value matches the current frame.
      * The criteria is that whether the data frame contains the name as key
-     * (whether it has this field) and whether the string representation of the
-     * value matches.
+     * (whether it has this field) and whether its value equals the given one,
+     * compared as the type of the field (see {@link FieldPredicate}). Parses the
+     * value on every call; scans should build one {@link FieldPredicate} instead.
      *
      * @param name
      * @param value
      * @return
      */
     public boolean matches(String name, Object value) {
-        if (!this.data.containsKey(name))
-            return false;
-        return this.data.get(name).toString().equals(value);
+        return FieldPredicate.equalTo(this.schema, name, value.toString()).matches(this);
     }
 
     /**
@@ -146,8 +210,8 @@ public class Measurement implements Renderable {
     @Override
     public String render() {
         return Arrays.stream(this.renderFields)
-                .filter(this.data::containsKey)
-                .map(field -> field + "=" + this.data.get(field))
+                .filter(field -> this.schema.ordinalOf(field) >= 0)
+                .map(field -> field + "=" + this.getValue(this.schema.ordinalOf(field)))
                 .collect(Collectors.joining(" "))
                 .trim();
     }
@@ -0,0 +1,164 @@
+/**
+ * A query session over a time range of one source, as returned by
+ * {@link Api#openQuery(TimeIndex, TimeIndex, Filter, String[])}. Like a
+ * {@link ReadSession} it goes through the range page by page, but only
+ * returns the records that match a {@link Filter}.
+ *
+ * Records are tested without being decoded, and only matches are turned into
+ * measurements. The sparse time index narrows every bucket down to the
+ * records around the time range, and buckets and blocks of records whose
+ * {@link ZoneMap} rules the filter out are skipped without being read.
+ *
+ * Every session carries its own state, so any number of them can be used at
+ * the same time. A single session is not meant to be shared between threads.
+ *
+ * @author Weinan Jimmy Michael
+ */
+public class QuerySession {
+
+    // source to query
+    private final int source;
+
+    // sanitized time range, condition, and fields to render
+    private final long startTime;
+    private final long endTime;
+    private final Filter filter;
+    private final String[] fields;
+
+    // last bucket in range
+    private final long endBucket;
+
+    // bucket currently being queried, the cursor into it, its zone map,
+    // the record past the last one that may be in range
+    private long bucket;
+    private RecordCursor cursor;
+    private ZoneMap zones;
+    private int stopRecord;
+
+    // block of the current bucket whose zone map has been checked
+    private int checkedBlock;
+
+    // whether the session has gone past the end of the range
+    private boolean finished;
+
+    /**
+     * Open a session over the given range. The range must be sanitized, i.e.
+     * within the data time range with the start not after the end; without
+     * data (see {@link Hash#isStarted()}) or with a filter nothing can match,
+     * the session is empty.
+     *
+     * @param source source id, see {@link Config#getSources()}
+     * @param startTime sanitized start time
+     * @param endTime sanitized end time
+     * @param filter condition records must match
+     * @param fields fields to be rendered
+     */
+    public QuerySession(int source, TimeIndex startTime, TimeIndex endTime, Filter filter, String[] fields) {
+        this.source = source;
+        this.startTime = startTime.getTimeInMilliseconds();
+        this.endTime = endTime.getTimeInMilliseconds();
+        this.filter = filter;
+        this.fields = fields;
+        this.cursor = RecordCursor.empty();
+        this.zones = ZoneMap.empty();
+        this.stopRecord = 0;
+
+        if (!Hash.getInstance().isStarted() || this.endTime < this.startTime || !filter.isSatisfiable()) {
+            this.bucket = 0L;
+            this.endBucket = -1L;
+            this.finished = true;
+            return;
+        }
+
+        // Determine the bucket range by hashing the start and end timestamp
+        this.bucket = Hash.getInstance().getBucketIndex(this.startTime) - 1;
+        this.endBucket = Hash.getInstance().getBucketIndex(this.endTime);
+        this.finished = false;
+    }
+
+    /**
+     * Query the next page of matches, continuing from where the last page left off.
+     *
+     * @return the next page, never empty
+     * @throws Api.NoMoreDataException when all matches in range have been returned
+     */
+    public Page next() throws Api.NoMoreDataException {
+        Page page = this.nextPage();
+        if (page.getSize() == 0)
+            throw new Api.NoMoreDataException();
+        return page;
+    }
+
+    /**
+     * Test records until the page is full or the range is exhausted.
+     *
+     * @return the next page, empty when there are no more matches
+     */
+    private Page nextPage() {
+        Page page = new Page(Api.PAGE_SIZE);
+        while (!this.finished && page.getSize() < Api.PAGE_SIZE) {
+            // Move on to the next bucket in range when the current one is exhausted
+            int record = this.cursor.getPosition();
+            if (record >= this.stopRecord) {
+                this.nextBucket();
+                continue;
+            }
+
+            // Entering a block: skip it if its zone map rules the filter out
+            int block = record / this.zones.getBlockSize();
+            if (block != this.checkedBlock) {
+                this.checkedBlock = block;
+                int blockEnd = Math.min((block + 1) * this.zones.getBlockSize(), this.stopRecord);
+                if (this.zones.covers(block, blockEnd - block * this.zones.getBlockSize())
+                        && !this.filter.mayMatch(this.zones, block)) {
+                    this.cursor.seek(blockEnd);
+                    continue;
+                }
+            }
+
+            if (!this.filter.matches(this.cursor)) {
+                this.cursor.skip();
+                continue;
+            }
+
+            // Only matches are decoded; the ones around the time range are dropped
+            Measurement measurement = this.cursor.next();
+            if (measurement.getTimeInMilliseconds() >= this.startTime
+                    && measurement.getTimeInMilliseconds() <= this.endTime) {
+                measurement.setRenderFields(this.fields);
+                page.add(measurement);
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Open a cursor over the next bucket in range, using the sparse time index
+     * to narrow it down to the records around the time range. A bucket whose
+     * zone map rules the filter out is not scanned at all.
+     */
+    private void nextBucket() {
+        // Stop at the last bucket started so far: an end time past the data,
+        // e.g. of an unbounded capture, would otherwise probe buckets that never existed
+        this.bucket++;
+        if (this.bucket > Math.min(this.endBucket, Hash.getInstance().getLastBucketIndex())) {
+            this.finished = true;
+            return;
+        }
+
+        try {
+            DataReader reader = DataReader.getInstance(this.source);
+            this.cursor = reader.openData((int) this.bucket);
+            this.zones = reader.readZones((int) this.bucket);
+            this.checkedBlock = -1;
+
+            SparseIndex index = reader.readIndex((int) this.bucket);
+            this.stopRecord = Math.min(index.ceiling(this.endTime), this.cursor.getCount());
+            if (this.zones.covers(this.cursor.getCount()) && !this.filter.mayMatch(this.zones))
+                this.stopRecord = 0;
+            this.cursor.seek(Math.min(index.floor(this.startTime), this.stopRecord));
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
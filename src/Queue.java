@@ -1,46 +1,96 @@
 /**
- * A Queue ADT backed by a Linked List.
+ * A Queue ADT backed by a growable circular array (ring buffer). Enqueue and
+ * dequeue are amortized O(1) and, unlike a linked list, do not allocate a node
+ * per item; the backing array only grows (doubling) when it is full.
  *
  * @author Weinan, Jimmy, Michael
  */
 public class Queue {
 
+    // Default initial capacity of the backing array
+    private static final int DEFAULT_CAPACITY = 16;
+
     // Backing storage for this queue
-    private LinkedList list;
+    private Object[] items;
+
+    // Position of the head (next item to dequeue) in the backing array
+    private int head;
+
+    // Number of items in the queue
+    private int size;
 
     public Queue() {
-        this.list = new LinkedList();
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a queue with the given initial capacity. The queue still grows
+     * beyond it when needed.
+     *
+     * @param capacity initial capacity, must be positive
+     */
+    public Queue(int capacity) {
+        if (capacity < 1)
+            throw new RuntimeException("capacity must be positive");
+        this.items = new Object[capacity];
+        this.head = 0;
+        this.size = 0;
     }
 
     /**
      * Add (Offer) an item to the queue. Under the hood, it gets
-     * added to the last position of the linked list.
+     * written to the slot right after the tail of the ring.
      *
      * @param item the item to be offered to the queue
      */
     public void enqueue(Object item) {
-        this.list.add(item, this.list.getSize());
+        if (this.size == this.items.length)
+            this.grow();
+        this.items[(this.head + this.size) % this.items.length] = item;
+        this.size++;
     }
 
     /**
-     * Remove (Poll) an item from the queue. Under the hood, the first
-     * item of the linked list is removed and returned.
+     * Remove (Poll) an item from the queue. Under the hood, the item
+     * at the head of the ring is removed and returned.
      *
      * @return the item to be polled from the queue, or NULL if the queue is empty.
      */
     public Object dequeue() {
-        Object item = this.list.get(0);
-        if (null != item) {
-            this.list.remove(0);
-        }
+        if (this.size == 0)
+            return null;
+        Object item = this.items[this.head];
+        this.items[this.head] = null;   // let go of the reference
+        this.head = (this.head + 1) % this.items.length;
+        this.size--;
         return item;
     }
 
+    /**
+     * Look at the item at the head of the queue without removing it.
+     *
+     * @return the item at the head, or NULL if the queue is empty.
+     */
+    public Object peek() {
+        return this.size == 0 ? null : this.items[this.head];
+    }
+
     /**
      * Get the size of the queue. Helpful in preventing dry drawing.
      * @return the size of the queue.
      */
     public int getSize() {
-        return this.list.getSize();
+        return this.size;
+    }
+
+    /**
+     * Double the backing array, unrolling the ring so the head is at 0.
+     */
+    private void grow() {
+        Object[] grown = new Object[this.items.length * 2];
+        for (int i = 0; i < this.size; i++)
+            grown[i] = this.items[(this.head + i) % this.items.length];
+        this.items = grown;
+        this.head = 0;
     }
 }
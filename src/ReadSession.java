@@ -0,0 +1,127 @@
+/**
+ * A read session over a time range of one source, as returned by
+ * {@link Api#openRead(TimeIndex, TimeIndex, String[])}. Instead of
+ * materializing the whole time range, the session only remembers where it is
+ * (bucket and record position) and decodes one page worth of records per
+ * call, so memory is bounded by the page size no matter how wide the range is.
+ *
+ * Every session carries its own state, so any number of them can be used at
+ * the same time, e.g. one per client thread. A single session is not meant to
+ * be shared between threads.
+ *
+ * @author Weinan Jimmy Michael
+ */
+public class ReadSession {
+
+    // source to read from
+    private final int source;
+
+    // sanitized time range and fields to render
+    private final long startTime;
+    private final long endTime;
+    private final String[] fields;
+
+    // last bucket in range
+    private final long endBucket;
+
+    // bucket currently being read, and the cursor into it
+    private long bucket;
+    private RecordCursor cursor;
+
+    // whether the session has gone past the end of the range
+    private boolean finished;
+
+    /**
+     * Open a session over the given range. The range must be sanitized, i.e.
+     * within the data time range with the start not after the end; without
+     * data (see {@link Hash#isStarted()}) the session is empty.
+     *
+     * @param source source id, see {@link Config#getSources()}
+     * @param startTime sanitized start time
+     * @param endTime sanitized end time
+     * @param fields fields to be rendered
+     */
+    public ReadSession(int source, TimeIndex startTime, TimeIndex endTime, String[] fields) {
+        this.source = source;
+        this.startTime = startTime.getTimeInMilliseconds();
+        this.endTime = endTime.getTimeInMilliseconds();
+        this.fields = fields;
+        this.cursor = RecordCursor.empty();
+
+        if (!Hash.getInstance().isStarted() || this.endTime < this.startTime) {
+            this.bucket = 0L;
+            this.endBucket = -1L;
+            this.finished = true;
+            return;
+        }
+
+        // Determine the bucket range by hashing the start and end timestamp
+        this.bucket = Hash.getInstance().getBucketIndex(this.startTime) - 1;
+        this.endBucket = Hash.getInstance().getBucketIndex(this.endTime);
+        this.finished = false;
+    }
+
+    /**
+     * Read the next page of data, continuing from where the last page left off.
+     *
+     * @return the next page, never empty
+     * @throws Api.NoMoreDataException when all data in range has been returned
+     */
+    public Page next() throws Api.NoMoreDataException {
+        Page page = this.nextPage();
+        if (page.getSize() == 0)
+            throw new Api.NoMoreDataException();
+        return page;
+    }
+
+    /**
+     * Decode records until the page is full or the range is exhausted.
+     *
+     * @return the next page, empty when there is no more data
+     */
+    private Page nextPage() {
+        Page page = new Page(Api.PAGE_SIZE);
+        while (!this.finished && page.getSize() < Api.PAGE_SIZE) {
+            // Move on to the next bucket in range when the current one is exhausted
+            if (!this.cursor.hasNext()) {
+                this.nextBucket();
+                continue;
+            }
+
+            // Skip any measurement prior to the requested time range, and stop at the
+            // first one past it since records are in time order.
+            // After that, set the render fields on the measurement. This will help
+            // measurement determine how to render()
+            Measurement measurement = this.cursor.next();
+            if (measurement.getTimeInMilliseconds() > this.endTime) {
+                this.finished = true;
+            } else if (measurement.getTimeInMilliseconds() >= this.startTime) {
+                measurement.setRenderFields(this.fields);
+                page.add(measurement);
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Open a cursor over the next bucket in range, using the sparse time index
+     * to jump close to the first record in range.
+     */
+    private void nextBucket() {
+        // Stop at the last bucket started so far: an end time past the data,
+        // e.g. of an unbounded capture, would otherwise probe buckets that never existed
+        this.bucket++;
+        if (this.bucket > Math.min(this.endBucket, Hash.getInstance().getLastBucketIndex())) {
+            this.finished = true;
+            return;
+        }
+
+        try {
+            this.cursor = DataReader.getInstance(this.source).openData((int) this.bucket);
+            SparseIndex index = DataReader.getInstance(this.source).readIndex((int) this.bucket);
+            this.cursor.seek(Math.min(index.floor(this.startTime), this.cursor.getCount()));
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
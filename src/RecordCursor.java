@@ -0,0 +1,142 @@
+import java.nio.ByteBuffer;
+
+/**
+ * A cursor over the records of one data bucket in {@link BucketFormat}. The
+ * cursor works directly on the bucket content (typically a memory-mapped
+ * buffer shared by all cursors of that bucket) and only decodes the record
+ * it is asked for, so a query touches only the pages it actually reads.
+ *
+ * Cursors are cheap, independent views: each one keeps its own position.
+ *
+ * @author Weinan Jimmy Michael
+ */
+public class RecordCursor {
+
+    // An empty cursor, for buckets that do not exist (yet)
+    private static final RecordCursor EMPTY = new RecordCursor(ByteBuffer.allocate(0), 0, 1);
+
+    // Private view of the bucket content
+    private final ByteBuffer buffer;
+
+    // Offset of the first record
+    private final int headerSize;
+
+    // Width of one record in bytes
+    private final int recordWidth;
+
+    // Number of complete records in the bucket
+    private final int count;
+
+    // Ordinal of the record next() will return
+    private int position;
+
+    /**
+     * Create a cursor over the bucket content. A trailing partial record
+     * (one that is still being written) is not visible to the cursor.
+     *
+     * @param buffer bucket content, including the header
+     * @param headerSize size of the header, i.e. offset of the first record
+     * @param recordWidth width of one record in bytes
+     */
+    public RecordCursor(ByteBuffer buffer, int headerSize, int recordWidth) {
+        this(buffer, headerSize, recordWidth, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Create a cursor over at most the given number of records of the bucket
+     * content, e.g. the records a concurrent writer has committed so far.
+     *
+     * @param buffer bucket content, including the header
+     * @param headerSize size of the header, i.e. offset of the first record
+     * @param recordWidth width of one record in bytes
+     * @param maxRecords number of records visible to the cursor at most
+     */
+    public RecordCursor(ByteBuffer buffer, int headerSize, int recordWidth, int maxRecords) {
+        this.buffer = buffer.duplicate();
+        this.headerSize = headerSize;
+        this.recordWidth = recordWidth;
+        this.count = Math.min(maxRecords, Math.max(0, (buffer.limit() - headerSize) / recordWidth));
+        this.position = 0;
+    }
+
+    public static RecordCursor empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Whether there are more records after the current position.
+     *
+     * @return
+     */
+    public boolean hasNext() {
+        return this.position < this.count;
+    }
+
+    /**
+     * Decode the record at the current position and move on to the next one.
+     *
+     * @return the decoded record
+     */
+    public Measurement next() {
+        if (!this.hasNext())
+            throw new RuntimeException("index out of bounds");
+        this.buffer.position(this.headerSize + this.position * this.recordWidth);
+        this.position++;
+        return Measurement.readFrom(this.buffer);
+    }
+
+    /**
+     * Get the raw value of a field of the record at the current position,
+     * without decoding the record or moving the cursor. Float fields come as
+     * their raw bits, like {@link Measurement#getInt(int)}.
+     *
+     * @param ordinal ordinal of the field in the schema
+     * @return
+     */
+    public int getInt(int ordinal) {
+        if (!this.hasNext())
+            throw new RuntimeException("index out of bounds");
+        return this.buffer.getInt(this.headerSize + this.position * this.recordWidth + ordinal * BucketFormat.FIELD_WIDTH);
+    }
+
+    /**
+     * Get the timestamp of the record at the current position, without
+     * decoding the record or moving the cursor.
+     *
+     * @return
+     */
+    public long getTimeInMilliseconds() {
+        Config.CompiledSchema schema = Config.getInstance().getCompiledSchema();
+        return Measurement.timeOf(schema, this.getInt(schema.getHourOrdinal()),
+                this.getInt(schema.getMinuteOrdinal()), this.getInt(schema.getSecondOrdinal()));
+    }
+
+    /**
+     * Move on to the next record without decoding the current one.
+     */
+    public void skip() {
+        if (!this.hasNext())
+            throw new RuntimeException("index out of bounds");
+        this.position++;
+    }
+
+    /**
+     * Move the cursor so that the next call to {@link #next()} returns the
+     * record with the given ordinal.
+     *
+     * @param record ordinal of the record, from 0 to count (inclusive, meaning the end)
+     */
+    public void seek(int record) {
+        if (record < 0 || record > this.count)
+            throw new RuntimeException("index out of bounds");
+        this.position = record;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public int getCount() {
+        return count;
+    }
+}
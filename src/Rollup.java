@@ -0,0 +1,346 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Rollup tier of one source: the count of records and the minimum, maximum and
+ * sum of every field per window of a fixed resolution (see
+ * {@link Config#getRollupTiers()}), aligned to multiples of it since midnight.
+ * {@link DataWriter} keeps one per tier while ingesting (see {@link Writer}),
+ * so an aggregation over a long time range can read a handful of rollup
+ * entries instead of every record (see {@link DefaultApi#aggregate}).
+ *
+ * Entries are written once their window is over, i.e. when the first record
+ * of a later window comes in, and when the writer is closed. A writer opened
+ * on an existing rollup takes its last entry back and carries on with that
+ * window. Frames of a source come in time order, so entries are in ascending
+ * window order, one per window, and the entries cover all records before the
+ * end of the last one (see {@link #getCoveredUntil()}). Should time go back,
+ * e.g. when a capture is repeated into the same storage area, the entries no
+ * longer summarize a time range alone: the writer marks the rollup as out of
+ * order, stops adding to it, and the rollup is not used.
+ *
+ * Rollup file layout: the window length (long) and whether the entries are in
+ * order (int, 1 or 0), then a sequence of entries, each the window start time
+ * (long), the number of records (int), then the minimum, maximum and sum of
+ * every field (double) in schema order.
+ *
+ * @author Weinan Jimmy Michael
+ */
+public class Rollup {
+
+    // Width of the rollup file header in bytes, and the offset of the in order flag in it
+    public static final int HEADER_WIDTH = 8 + 4;
+    private static final int ORDERED_OFFSET = 8;
+
+    // A rollup without entries, for tiers that have not been written
+    private static final Rollup EMPTY = new Rollup(ByteBuffer.allocate(0), 0, 1L);
+
+    // Content of the rollup file
+    private final ByteBuffer buffer;
+
+    // Number of fields in the schema
+    private final int fields;
+
+    // Length of a window in milliseconds
+    private final long resolution;
+
+    // Number of complete entries
+    private final int size;
+
+    private Rollup(ByteBuffer buffer, int fields, long resolution) {
+        this.buffer = buffer;
+        this.fields = fields;
+        this.resolution = resolution;
+        this.size = Math.max(0, buffer.limit() - HEADER_WIDTH) / entryWidth(fields);
+    }
+
+    public static Rollup empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Open a rollup on the content of a rollup file. A trailing partial entry
+     * (one that is still being written) is ignored.
+     *
+     * @param buffer content of the rollup file
+     * @param fields number of fields in the schema
+     * @param resolution length of a window in milliseconds
+     * @return the rollup, or an empty one if its entries are out of order
+     */
+    public static Rollup parse(ByteBuffer buffer, int fields, long resolution) {
+        if (buffer.limit() < HEADER_WIDTH)
+            return EMPTY;
+        if (buffer.getLong(0) != resolution)
+            throw new RuntimeException("Not a rollup of resolution " + resolution);
+        if (buffer.getInt(ORDERED_OFFSET) == 0)
+            return EMPTY;
+        return new Rollup(buffer, fields, resolution);
+    }
+
+    /**
+     * Width of one rollup entry in bytes.
+     *
+     * @param fields number of fields in the schema
+     * @return
+     */
+    public static int entryWidth(int fields) {
+        return 8 + 4 + fields * 3 * 8;
+    }
+
+    /**
+     * Find the first entry whose window starts at or after the given time.
+     *
+     * @param time
+     * @return position of the entry, {@link #getSize()} if there is none
+     */
+    public int ceiling(long time) {
+        int low = 0;
+        int high = this.size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (this.getWindowStart(mid) < time)
+                low = mid + 1;
+            else
+                high = mid - 1;
+        }
+        return low;
+    }
+
+    /**
+     * Start of the time the rollup covers, i.e. the start of the window of its
+     * first entry. Data written before the tier was kept is not summarized.
+     *
+     * @return start time, Long.MAX_VALUE without entries
+     */
+    public long getCoveredFrom() {
+        return this.size == 0 ? Long.MAX_VALUE : this.getWindowStart(0);
+    }
+
+    /**
+     * End of the time the rollup covers, i.e. the end of the window of its
+     * last entry; records before it are all summarized by the entries.
+     *
+     * @return end time (exclusive), Long.MIN_VALUE without entries
+     */
+    public long getCoveredUntil() {
+        return this.size == 0 ? Long.MIN_VALUE : this.getWindowStart(this.size - 1) + this.resolution;
+    }
+
+    public long getWindowStart(int entry) {
+        return this.buffer.getLong(this.offsetOf(entry));
+    }
+
+    public int getCount(int entry) {
+        return this.buffer.getInt(this.offsetOf(entry) + 8);
+    }
+
+    public double getMin(int entry, int ordinal) {
+        return this.buffer.getDouble(this.offsetOf(entry) + 12 + ordinal * 24);
+    }
+
+    public double getMax(int entry, int ordinal) {
+        return this.buffer.getDouble(this.offsetOf(entry) + 12 + ordinal * 24 + 8);
+    }
+
+    public double getSum(int entry, int ordinal) {
+        return this.buffer.getDouble(this.offsetOf(entry) + 12 + ordinal * 24 + 16);
+    }
+
+    private int offsetOf(int entry) {
+        return HEADER_WIDTH + entry * entryWidth(this.fields);
+    }
+
+    public long getResolution() {
+        return resolution;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Maintains one rollup file while records are written: folds every record
+     * into the current window, and buffers the entry of a window once it is
+     * over. A record from before the current window marks the rollup as out of
+     * order, after which nothing more is added. Only meant to be used by
+     * {@link DataWriter}.
+     */
+    public static class Writer {
+
+        // Number of entries room is initially made for in the write buffer
+        private static final int BUFFER_ENTRIES = 64;
+
+        // Channel to the rollup file, positioned at its end
+        private final FileChannel channel;
+
+        // Entry write buffer, drained to the channel when flushed
+        private ByteBuffer buffer;
+
+        // Length of a window in milliseconds
+        private final long resolution;
+
+        // Whether each field is a float, by ordinal
+        private final boolean[] floats;
+
+        // Whether the entries are in window order, i.e. the rollup is usable
+        private boolean ordered;
+
+        // Start of the current window, its number of records, and the
+        // minimum, maximum and sum of each field in it
+        private long windowStart;
+        private int count;
+        private final double[] min;
+        private final double[] max;
+        private final double[] sum;
+
+        public Writer(Path path, long resolution, boolean[] floats) throws IOException {
+            this.channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            this.buffer = ByteBuffer.allocate(BUFFER_ENTRIES * entryWidth(floats.length));
+            this.resolution = resolution;
+            this.floats = floats;
+            this.count = 0;
+            this.min = new double[floats.length];
+            this.max = new double[floats.length];
+            this.sum = new double[floats.length];
+
+            // Start a new rollup with its header, or carry on with an existing one
+            ByteBuffer header = ByteBuffer.allocate(HEADER_WIDTH);
+            if (this.channel.size() < HEADER_WIDTH) {
+                header.putLong(resolution).putInt(1).flip();
+                while (header.hasRemaining())
+                    this.channel.write(header, header.position());
+                this.ordered = true;
+            } else {
+                while (header.hasRemaining() && this.channel.read(header, header.position()) > 0);
+                if (header.getLong(0) != resolution)
+                    throw new RuntimeException("Not a rollup of resolution " + resolution + ": " + path);
+                this.ordered = header.getInt(ORDERED_OFFSET) != 0;
+            }
+
+            // Drop any partial entry, then take the last entry back as the
+            // current window: more records of it may follow
+            int width = entryWidth(floats.length);
+            long entries = (this.channel.size() - HEADER_WIDTH) / width;
+            if (this.ordered && entries > 0) {
+                ByteBuffer last = ByteBuffer.allocate(width);
+                while (last.hasRemaining() && this.channel.read(last, HEADER_WIDTH + (entries - 1) * width + last.position()) > 0);
+                last.flip();
+                this.windowStart = last.getLong();
+                this.count = last.getInt();
+                for (int ordinal = 0; ordinal < floats.length; ordinal++) {
+                    this.min[ordinal] = last.getDouble();
+                    this.max[ordinal] = last.getDouble();
+                    this.sum[ordinal] = last.getDouble();
+                }
+                entries--;
+            }
+            this.channel.truncate(HEADER_WIDTH + entries * width);
+            this.channel.position(HEADER_WIDTH + entries * width);
+        }
+
+        /**
+         * Fold a record into its window, writing out the entry of the previous
+         * window if the record starts a new one.
+         *
+         * @param measurement
+         * @throws IOException
+         */
+        public void add(Measurement measurement) throws IOException {
+            if (!this.ordered)
+                return;
+            long time = measurement.getTimeInMilliseconds();
+            long window = time - Math.floorMod(time, this.resolution);
+            if (this.count > 0 && window < this.windowStart) {
+                this.markUnordered();
+                return;
+            }
+            if (this.count > 0 && window != this.windowStart)
+                this.writeEntry();
+
+            for (int ordinal = 0; ordinal < this.floats.length; ordinal++) {
+                int raw = measurement.getInt(ordinal);
+                double value = this.floats[ordinal] ? Float.intBitsToFloat(raw) : raw;
+                if (this.count == 0) {
+                    this.min[ordinal] = value;
+                    this.max[ordinal] = value;
+                    this.sum[ordinal] = value;
+                } else {
+                    this.min[ordinal] = Math.min(this.min[ordinal], value);
+                    this.max[ordinal] = Math.max(this.max[ordinal], value);
+                    this.sum[ordinal] += value;
+                }
+            }
+            this.windowStart = window;
+            this.count++;
+        }
+
+        /**
+         * Clear the in order flag in the header, and drop the current window
+         * and the buffered entries. Entries already written stay, so readers
+         * that mapped the file before do not lose their view of it.
+         *
+         * @throws IOException
+         */
+        private void markUnordered() throws IOException {
+            ByteBuffer flag = ByteBuffer.allocate(4).putInt(0, 0);
+            while (flag.hasRemaining())
+                this.channel.write(flag, ORDERED_OFFSET + flag.position());
+            this.ordered = false;
+            this.count = 0;
+            this.buffer.clear();
+        }
+
+        private void writeEntry() {
+            // Grow rather than write out early: entries reach the file only when
+            // the data writer flushes, after the records they summarize
+            if (this.buffer.remaining() < entryWidth(this.floats.length)) {
+                ByteBuffer grown = ByteBuffer.allocate(this.buffer.capacity() * 2);
+                this.buffer.flip();
+                grown.put(this.buffer);
+                this.buffer = grown;
+            }
+            this.buffer.putLong(this.windowStart);
+            this.buffer.putInt(this.count);
+            for (int ordinal = 0; ordinal < this.floats.length; ordinal++) {
+                this.buffer.putDouble(this.min[ordinal]);
+                this.buffer.putDouble(this.max[ordinal]);
+                this.buffer.putDouble(this.sum[ordinal]);
+            }
+            this.count = 0;
+        }
+
+        /**
+         * Write the buffered entries to the channel.
+         *
+         * @throws IOException
+         */
+        public void flush() throws IOException {
+            this.buffer.flip();
+            while (this.buffer.hasRemaining())
+                this.channel.write(this.buffer);
+            this.buffer.clear();
+        }
+
+        /**
+         * Write out the entry of the current window, even though it may not be
+         * over, then flush and close the channel.
+         *
+         * @throws IOException
+         */
+        public void close() throws IOException {
+            try {
+                if (this.count > 0)
+                    this.writeEntry();
+                this.flush();
+            } finally {
+                this.channel.close();
+            }
+        }
+    }
+}
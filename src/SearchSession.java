@@ -0,0 +1,302 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A search session for the occurrences of a field value in one source, as
+ * returned by {@link Api#openSearch(String, String)}. Each call to
+ * {@link #next()} returns the next occurrence after the previous one. The
+ * session remembers the bucket and record position of the last hit and
+ * resumes right after it, so going through all N occurrences reads every
+ * record once. The value is compared as the type of the field (see
+ * {@link FieldPredicate}), and buckets and blocks of records whose
+ * {@link ZoneMap} rules the value out are skipped without being read. A
+ * sealed bucket with an {@link InvertedIndex} of the field is not scanned at
+ * all: the hits are looked up in the index.
+ *
+ * Every session carries its own state, so any number of them can be used at
+ * the same time, e.g. one per client thread. A single session is not meant to
+ * be shared between threads.
+ *
+ * @author Weinan Jimmy Michael
+ */
+public class SearchSession {
+
+    // pool the buckets are scanned on in parallel searches, created on first use
+    private static ForkJoinPool pool;
+
+    // source to search
+    private final int source;
+
+    // search criteria
+    private final String fieldName;
+    private final String value;
+
+    // the criteria parsed into the type of the field
+    private final FieldPredicate predicate;
+
+    // where the next search starts: bucket and record ordinal
+    // within it, right after the last hit
+    private long resumeBucket;
+    private int resumeRecord;
+
+    // whether the session has run out of hits
+    private boolean finished;
+
+    // hits looked up in the inverted index of the last bucket, NULL if none
+    private volatile BucketHits indexedHits;
+
+    /**
+     * Open a search session. It does not search anything yet.
+     *
+     * @param source source id, see {@link Config#getSources()}
+     * @param fieldName name of the field to search
+     * @param value expected value of that field
+     */
+    public SearchSession(int source, String fieldName, String value) {
+        this.source = source;
+        this.fieldName = fieldName;
+        this.value = value;
+        this.predicate = FieldPredicate.equalTo(Config.getInstance().getCompiledSchema(), fieldName, value);
+        this.resumeBucket = 0L;
+        this.resumeRecord = 0;
+        this.finished = false;
+    }
+
+    /**
+     * Whether this session searches for the given criteria.
+     *
+     * @param fieldName
+     * @param value
+     * @return
+     */
+    public boolean isFor(String fieldName, String value) {
+        return this.fieldName.equals(fieldName) && this.value.equals(value);
+    }
+
+    /**
+     * Search for the next occurrence after the last one. Buckets are scanned
+     * one at a time, or with {@link Config#getSearchParallelism()} above 1,
+     * that many at a time (see {@link #searchParallel(long, long)}).
+     *
+     * @return time index when the occurrence happens
+     * @throws Api.NoMoreDataException when there are no more occurrences
+     */
+    public TimeIndex next() throws Api.NoMoreDataException {
+        // Nothing to search before the first frame has come in, nor for a value no record can hold
+        if (this.finished || !this.predicate.isSatisfiable() || !Hash.getInstance().isStarted())
+            throw new Api.NoMoreDataException();
+
+        // Do the search from right after the last hit (the top of bucket 0 for
+        // the first search call of the session) to the last bucket available
+        long startBucket = this.resumeBucket;
+        long lastBucket = Hash.getInstance().getLastBucketIndex();
+        Hit hit;
+        if (Config.getInstance().getSearchParallelism() > 1) {
+            hit = this.searchParallel(startBucket, lastBucket);
+        } else {
+            hit = null;
+            AtomicLong earliestHit = new AtomicLong(Long.MAX_VALUE);
+            for (long bucketIndex = startBucket; hit == null && bucketIndex <= lastBucket; bucketIndex++)
+                hit = this.scan(bucketIndex, earliestHit);
+        }
+
+        // If there is actually a hit, we remember where it is and return its time index.
+        if (hit != null) {
+            this.resumeBucket = hit.bucket;
+            this.resumeRecord = hit.record + 1;
+            return new TimeIndex(hit.time);
+        }
+
+        // If we are ever here, the search must have ended and we have no hit.
+        this.finished = true;
+        throw new Api.NoMoreDataException();
+    }
+
+    /**
+     * Scan the buckets concurrently on the shared search pool while still
+     * returning the earliest hit. A window of buckets ahead is being scanned
+     * at any time, and results are taken in bucket order: the first bucket
+     * with a hit is the answer, since buckets are in time order. Once a bucket
+     * has a hit, scans of later buckets give up (they watch the earliest hit
+     * bucket) and the ones not started yet are cancelled.
+     *
+     * @param startBucket first bucket to scan
+     * @param lastBucket last bucket to scan
+     * @return the earliest hit, or NULL if there is none
+     */
+    private Hit searchParallel(long startBucket, long lastBucket) {
+        ForkJoinPool pool = getPool();
+        int window = 2 * pool.getParallelism();
+        AtomicLong earliestHit = new AtomicLong(Long.MAX_VALUE);
+        Queue pending = new Queue();
+        long nextBucket = startBucket;
+        try {
+            while (true) {
+                // Keep the window of scans full
+                while (pending.getSize() < window && nextBucket <= lastBucket) {
+                    final long bucketIndex = nextBucket++;
+                    pending.enqueue(pool.submit(() -> this.scan(bucketIndex, earliestHit)));
+                }
+                if (pending.getSize() == 0)
+                    return null;
+
+                @SuppressWarnings("unchecked")
+                ForkJoinTask<Hit> scan = (ForkJoinTask<Hit>) pending.dequeue();
+                Hit hit = scan.join();
+                if (hit != null)
+                    return hit;
+            }
+        } finally {
+            while (pending.getSize() > 0)
+                ((ForkJoinTask<?>) pending.dequeue()).cancel(false);
+        }
+    }
+
+    /**
+     * Scan one bucket for the first occurrence after the last hit. That is
+     * right after the last hit in its bucket, and the top of any later bucket.
+     *
+     * @param bucketIndex bucket to scan
+     * @param earliestHit lowest bucket index with a hit so far, the scan gives up
+     *                    when it is below this bucket; updated on a hit
+     * @return the hit, or NULL if there is none (or the scan gave up)
+     */
+    private Hit scan(long bucketIndex, AtomicLong earliestHit) {
+        try {
+            // Ask DataReader for a cursor over the records of the data bucket
+            DataReader reader = DataReader.getInstance(this.source);
+            RecordCursor cursor = reader.openData((int) bucketIndex);
+            int start = bucketIndex == this.resumeBucket ? Math.min(this.resumeRecord, cursor.getCount()) : 0;
+
+            // A sealed bucket with an inverted index of the field answers from it
+            int[] hits = this.lookup(reader, bucketIndex, cursor.getCount());
+            if (hits != null) {
+                int found = Arrays.binarySearch(hits, start);
+                if (found < 0)
+                    found = -found - 1;
+                if (found == hits.length)
+                    return null;
+                cursor.seek(hits[found]);
+                earliestHit.accumulateAndGet(bucketIndex, Math::min);
+                return new Hit(bucketIndex, hits[found], cursor.next().getTimeInMilliseconds());
+            }
+
+            ZoneMap zones = reader.readZones((int) bucketIndex);
+
+            // Skip the whole bucket if its zone map rules the value out
+            if (zones.covers(cursor.getCount()) && !this.predicate.mayMatch(zones))
+                return null;
+
+            // In the bucket of the last hit, jump right past it
+            cursor.seek(start);
+
+            // Stop at the first hit where the measurement matches the provided criteria.
+            int checkedBlock = -1;
+            while (cursor.hasNext() && earliestHit.get() > bucketIndex) {
+                int record = cursor.getPosition();
+
+                // Entering a block: skip it if its zone map rules the value out
+                int block = record / zones.getBlockSize();
+                if (block != checkedBlock) {
+                    checkedBlock = block;
+                    int blockEnd = Math.min((block + 1) * zones.getBlockSize(), cursor.getCount());
+                    if (zones.covers(block, blockEnd - block * zones.getBlockSize())
+                            && !this.predicate.mayMatch(zones, block)) {
+                        cursor.seek(blockEnd);
+                        continue;
+                    }
+                }
+
+                if (!this.predicate.matches(cursor)) {
+                    cursor.skip();
+                    continue;
+                }
+
+                // Only a hit is decoded, for its timestamp
+                earliestHit.accumulateAndGet(bucketIndex, Math::min);
+                return new Hit(bucketIndex, record, cursor.next().getTimeInMilliseconds());
+            }
+            return null;
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Look the hits of a bucket up in its inverted index. The hits of the
+     * last bucket looked up are kept, so going through the hits of a bucket
+     * one by one reads its index once.
+     *
+     * @param reader reader of the source
+     * @param bucketIndex bucket to look up
+     * @param records number of records in the bucket, the index must cover them all
+     * @return ordinals of the records with the value, or NULL if the bucket cannot be looked up
+     * @throws Exception
+     */
+    private int[] lookup(DataReader reader, long bucketIndex, int records) throws Exception {
+        if (!this.predicate.isIntegerEquality())
+            return null;
+
+        BucketHits cached = this.indexedHits;
+        if (cached != null && cached.bucket == bucketIndex && cached.records == records)
+            return cached.hits;
+
+        InvertedIndex index = reader.readInvertedIndex((int) bucketIndex);
+        if (null == index || index.getRecords() != records || !index.has(this.predicate.getOrdinal()))
+            return null;
+        int[] hits = index.lookup(this.predicate.getOrdinal(), this.predicate.getIntValue());
+        this.indexedHits = new BucketHits(bucketIndex, records, hits);
+        return hits;
+    }
+
+    /**
+     * Get the pool parallel searches run on, shared by all sessions.
+     *
+     * @return
+     */
+    private static synchronized ForkJoinPool getPool() {
+        if (null == pool)
+            pool = new ForkJoinPool(Config.getInstance().getSearchParallelism());
+        return pool;
+    }
+
+    /**
+     * The hits of one bucket, as looked up in its inverted index.
+     */
+    private static class BucketHits {
+
+        // bucket, and number of records in it when looked up
+        private final long bucket;
+        private final int records;
+
+        // ordinals of the records with the value, ascending
+        private final int[] hits;
+
+        BucketHits(long bucket, int records, int[] hits) {
+            this.bucket = bucket;
+            this.records = records;
+            this.hits = hits;
+        }
+    }
+
+    /**
+     * Where an occurrence was found.
+     */
+    private static class Hit {
+
+        // bucket and ordinal of the record within the bucket
+        private final long bucket;
+        private final int record;
+
+        // timestamp of the record
+        private final long time;
+
+        Hit(long bucket, int record, long time) {
+            this.bucket = bucket;
+            this.record = record;
+            this.time = time;
+        }
+    }
+}
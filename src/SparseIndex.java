@@ -0,0 +1,121 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Sparse time index of one data bucket. Records within a bucket are in time
+ * order, so instead of indexing every record, {@link DataWriter} writes an
+ * entry (timestamp, record ordinal) for every N-th record, N being
+ * {@link Config#getIndexInterval()}. A reader binary-searches the entries to
+ * find where in the bucket a time range starts and scans at most N records
+ * before reaching it.
+ *
+ * Index file layout: a sequence of entries, each a timestamp (long) followed
+ * by a record ordinal (int).
+ *
+ * @author Weinan Jimmy Michael
+ */
+public class SparseIndex {
+
+    // Width of one index entry in bytes
+    public static final int ENTRY_WIDTH = 8 + 4;
+
+    // An index without entries, for buckets that do not have one
+    private static final SparseIndex EMPTY = new SparseIndex(new long[0], new int[0]);
+
+    // Timestamps of the indexed records, ascending
+    private final long[] times;
+
+    // Ordinals of the indexed records, ascending
+    private final int[] records;
+
+    private SparseIndex(long[] times, int[] records) {
+        this.times = times;
+        this.records = records;
+    }
+
+    public static SparseIndex empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Decode an index from the content of an index file. A trailing partial
+     * entry (one that is still being written) is ignored.
+     *
+     * @param buffer content of the index file
+     * @return
+     */
+    public static SparseIndex parse(ByteBuffer buffer) {
+        int count = buffer.remaining() / ENTRY_WIDTH;
+        long[] times = new long[count];
+        int[] records = new int[count];
+        for (int i = 0; i < count; i++) {
+            times[i] = buffer.getLong();
+            records[i] = buffer.getInt();
+        }
+        return new SparseIndex(times, records);
+    }
+
+    /**
+     * Encode one index entry.
+     *
+     * @param buffer buffer to write to
+     * @param time timestamp of the record
+     * @param record ordinal of the record within the bucket
+     */
+    public static void writeEntry(ByteBuffer buffer, long time, int record) {
+        buffer.putLong(time);
+        buffer.putInt(record);
+    }
+
+    /**
+     * Find the record to start scanning from in order to see every record
+     * at or after the given time. That is the last indexed record strictly
+     * before the time (records sharing a timestamp may straddle an entry),
+     * or the first record of the bucket if there is no such entry.
+     *
+     * @param time timestamp to look for
+     * @return ordinal of the record to start scanning from
+     */
+    public int floor(long time) {
+        int low = 0;
+        int high = this.times.length - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (this.times[mid] < time) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found < 0 ? 0 : this.records[found];
+    }
+
+    /**
+     * Find the record to stop scanning at in order to see every record at or
+     * before the given time. That is the first indexed record strictly after
+     * the time, or the end of the bucket if there is no such entry.
+     *
+     * @param time timestamp to look for
+     * @return ordinal of the record to stop at, {@link Integer#MAX_VALUE} for the end of the bucket
+     */
+    public int ceiling(long time) {
+        int low = 0;
+        int high = this.times.length - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (this.times[mid] > time) {
+                found = mid;
+                high = mid - 1;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return found < 0 ? Integer.MAX_VALUE : this.records[found];
+    }
+
+    public int getSize() {
+        return this.times.length;
+    }
+}
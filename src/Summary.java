@@ -22,7 +22,7 @@ public class Summary implements Renderable {
     public static final String KEY_SCHEMA = "schema";
 
     // bytes count
-    private int bytesCount;
+    private long bytesCount;
 
     // start timestamp
     private long startTimestamp;
@@ -43,7 +43,7 @@ public class Summary implements Renderable {
     }
 
     private Summary() {
-        this.bytesCount = 0;
+        this.bytesCount = 0L;
         this.startTimestamp = 0L;
         this.endTimestamp = 0L;
         this.schema = new LinkedList();
@@ -58,7 +58,7 @@ public class Summary implements Renderable {
         String[] kv = raw.split("=");
         switch (kv[0]) {
             case KEY_COUNT:
-                this.setBytesCount(Integer.parseInt(kv[1]));
+                this.setBytesCount(Long.parseLong(kv[1]));
                 break;
 
             case KEY_START:
@@ -79,7 +79,7 @@ public class Summary implements Renderable {
                     } else if (split.length == 3) {
                         schema = new Config.Schema(split[0], split[1], split[2]);
                     }
-                    list.add(schema, list.getSize());
+                    list.addLast(schema);
                 });
                 this.setSchema(list);
                 break;
@@ -94,15 +94,15 @@ public class Summary implements Renderable {
      *
      * @param delta
      */
-    public void increaseBytesCount(int delta) {
+    public void increaseBytesCount(long delta) {
         this.bytesCount += delta;
     }
 
-    public int getBytesCount() {
+    public long getBytesCount() {
         return bytesCount;
     }
 
-    public void setBytesCount(int bytesCount) {
+    public void setBytesCount(long bytesCount) {
         this.bytesCount = bytesCount;
     }
 
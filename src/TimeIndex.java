@@ -21,10 +21,7 @@ public class TimeIndex implements Renderable {
      * @return
      */
     public static TimeIndex of(int hour, int minute, int second) {
-        Long secondsAsMillisecond = (long) second * SECOND_MILLISECONDS;
-        Long minuteAsMillisecond = (long) minute * MINUTE_MILLISECONDS;
-        Long hourAsMillisecond = (long) hour * HOUR_MILLISECONDS;
-        return new TimeIndex(hourAsMillisecond + minuteAsMillisecond + secondsAsMillisecond);
+        return new TimeIndex(toMilliseconds(hour, minute, second));
     }
 
     /**
@@ -35,10 +32,37 @@ public class TimeIndex implements Renderable {
      * @return
      */
     public static TimeIndex of(int hour, int minute, float second) {
-        Long secondsAsMillisecond = (long) (second * SECOND_MILLISECONDS_F);
-        Long minuteAsMillisecond = (long) minute * MINUTE_MILLISECONDS;
-        Long hourAsMillisecond = (long) hour * HOUR_MILLISECONDS;
-        return new TimeIndex(hourAsMillisecond + minuteAsMillisecond + secondsAsMillisecond);
+        return new TimeIndex(toMilliseconds(hour, minute, second));
+    }
+
+    /**
+     * Millisecond timestamp of hour, minute and integer second data, without
+     * creating a time index.
+     * @param hour
+     * @param minute
+     * @param second
+     * @return
+     */
+    public static long toMilliseconds(int hour, int minute, int second) {
+        long secondsAsMillisecond = (long) second * SECOND_MILLISECONDS;
+        long minuteAsMillisecond = (long) minute * MINUTE_MILLISECONDS;
+        long hourAsMillisecond = (long) hour * HOUR_MILLISECONDS;
+        return hourAsMillisecond + minuteAsMillisecond + secondsAsMillisecond;
+    }
+
+    /**
+     * Millisecond timestamp of hour, minute and float (fractional) second data,
+     * without creating a time index.
+     * @param hour
+     * @param minute
+     * @param second
+     * @return
+     */
+    public static long toMilliseconds(int hour, int minute, float second) {
+        long secondsAsMillisecond = (long) (second * SECOND_MILLISECONDS_F);
+        long minuteAsMillisecond = (long) minute * MINUTE_MILLISECONDS;
+        long hourAsMillisecond = (long) hour * HOUR_MILLISECONDS;
+        return hourAsMillisecond + minuteAsMillisecond + secondsAsMillisecond;
     }
 
     public TimeIndex(long timeInMilliseconds) {
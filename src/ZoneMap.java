@@ -0,0 +1,221 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Zone map of one data bucket: the minimum and maximum of every field, per
+ * block of records and for the bucket as a whole. A block is
+ * {@link Config#getIndexInterval()} consecutive records, the same stretch
+ * that lies between two {@link SparseIndex} entries. A query that knows the
+ * range of values it is after can skip every bucket and block whose range
+ * does not overlap it, without decoding a single record.
+ *
+ * Values are compared by the type of their field, integers as integers and
+ * floats as floats (in the order of {@link Float#compare(float, float)}),
+ * while being kept in their raw 4 byte form like in {@link BucketFormat}.
+ *
+ * Zone file layout: the block size (int), then one entry per block, each the
+ * number of records it summarizes (int) followed by the minimum and maximum
+ * of every field (int or float bits) in schema order. Only the last block may
+ * summarize fewer records than the block size.
+ *
+ * @author Weinan Jimmy Michael
+ */
+public class ZoneMap {
+
+    // Width of the zone file header in bytes
+    public static final int HEADER_WIDTH = 4;
+
+    // A zone map without blocks, for buckets that do not have one
+    private static final ZoneMap EMPTY = new ZoneMap(new boolean[0], 1, new int[0], new int[0][], new int[0][]);
+
+    // Whether each field is a float, by ordinal
+    private final boolean[] floats;
+
+    // Number of records in a full block
+    private final int blockSize;
+
+    // Number of records each block summarizes
+    private final int[] records;
+
+    // Minimum and maximum of each field, by block then ordinal
+    private final int[][] min;
+    private final int[][] max;
+
+    // Minimum and maximum of each field over all blocks, by ordinal
+    private final int[] bucketMin;
+    private final int[] bucketMax;
+
+    // Number of records all blocks summarize
+    private final int bucketRecords;
+
+    private ZoneMap(boolean[] floats, int blockSize, int[] records, int[][] min, int[][] max) {
+        this.floats = floats;
+        this.blockSize = blockSize;
+        this.records = records;
+        this.min = min;
+        this.max = max;
+
+        this.bucketMin = new int[floats.length];
+        this.bucketMax = new int[floats.length];
+        int total = 0;
+        for (int block = 0; block < records.length; block++) {
+            for (int ordinal = 0; ordinal < floats.length; ordinal++) {
+                if (block == 0 || this.compare(ordinal, min[block][ordinal], this.bucketMin[ordinal]) < 0)
+                    this.bucketMin[ordinal] = min[block][ordinal];
+                if (block == 0 || this.compare(ordinal, max[block][ordinal], this.bucketMax[ordinal]) > 0)
+                    this.bucketMax[ordinal] = max[block][ordinal];
+            }
+            total += records[block];
+        }
+        this.bucketRecords = total;
+    }
+
+    public static ZoneMap empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Decode a zone map from the content of a zone file. A trailing partial
+     * entry (one that is still being written) is ignored.
+     *
+     * @param buffer content of the zone file
+     * @param schema the compiled schema the bucket was written with
+     * @return
+     */
+    public static ZoneMap parse(ByteBuffer buffer, Config.CompiledSchema schema) {
+        if (buffer.remaining() < HEADER_WIDTH)
+            return EMPTY;
+
+        boolean[] floats = floatsOf(schema);
+        int blockSize = buffer.getInt();
+        int count = buffer.remaining() / entryWidth(floats.length);
+        int[] records = new int[count];
+        int[][] min = new int[count][floats.length];
+        int[][] max = new int[count][floats.length];
+        for (int block = 0; block < count; block++) {
+            records[block] = buffer.getInt();
+            for (int ordinal = 0; ordinal < floats.length; ordinal++) {
+                min[block][ordinal] = buffer.getInt();
+                max[block][ordinal] = buffer.getInt();
+            }
+        }
+        return new ZoneMap(floats, blockSize, records, min, max);
+    }
+
+    /**
+     * Width of one zone entry in bytes.
+     *
+     * @param fields number of fields in the schema
+     * @return
+     */
+    public static int entryWidth(int fields) {
+        return 4 + fields * 2 * BucketFormat.FIELD_WIDTH;
+    }
+
+    /**
+     * Encode one zone entry.
+     *
+     * @param buffer buffer to write to
+     * @param records number of records the entry summarizes
+     * @param min minimum of each field, by ordinal
+     * @param max maximum of each field, by ordinal
+     */
+    public static void writeEntry(ByteBuffer buffer, int records, int[] min, int[] max) {
+        buffer.putInt(records);
+        for (int ordinal = 0; ordinal < min.length; ordinal++) {
+            buffer.putInt(min[ordinal]);
+            buffer.putInt(max[ordinal]);
+        }
+    }
+
+    /**
+     * Whether each field of the schema is a float, by ordinal.
+     *
+     * @param schema
+     * @return
+     */
+    public static boolean[] floatsOf(Config.CompiledSchema schema) {
+        boolean[] floats = new boolean[schema.getSize()];
+        for (int ordinal = 0; ordinal < floats.length; ordinal++)
+            floats[ordinal] = schema.getType(ordinal) == Config.CompiledSchema.TYPE_FLOAT;
+        return floats;
+    }
+
+    /**
+     * Compare two raw values of a field by the type of the field.
+     *
+     * @param floating whether the field is a float
+     * @param a raw value
+     * @param b raw value
+     * @return negative, zero or positive as a is less than, equal to or greater than b
+     */
+    public static int compare(boolean floating, int a, int b) {
+        if (floating)
+            return Float.compare(Float.intBitsToFloat(a), Float.intBitsToFloat(b));
+        return Integer.compare(a, b);
+    }
+
+    private int compare(int ordinal, int a, int b) {
+        return compare(this.floats[ordinal], a, b);
+    }
+
+    /**
+     * Whether the given block summarizes at least the given number of records,
+     * i.e. whether it can be trusted for those records.
+     *
+     * @param block block number, the block of record r is r / block size
+     * @param records number of records of the block to be covered
+     * @return
+     */
+    public boolean covers(int block, int records) {
+        return block < this.records.length && this.records[block] >= records;
+    }
+
+    /**
+     * Whether the zone map as a whole summarizes at least the given number of
+     * records, i.e. whether it can be trusted for the bucket.
+     *
+     * @param records number of records in the bucket
+     * @return
+     */
+    public boolean covers(int records) {
+        return this.bucketRecords >= records;
+    }
+
+    /**
+     * Whether a field of the given block may hold a value between low and
+     * high (both inclusive, raw values).
+     *
+     * @param block block number
+     * @param ordinal ordinal of the field
+     * @param low raw lower bound
+     * @param high raw upper bound
+     * @return false if no record of the block can have such a value
+     */
+    public boolean mayContain(int block, int ordinal, int low, int high) {
+        return this.compare(ordinal, this.min[block][ordinal], high) <= 0
+                && this.compare(ordinal, this.max[block][ordinal], low) >= 0;
+    }
+
+    /**
+     * Whether a field of the bucket may hold a value between low and high
+     * (both inclusive, raw values).
+     *
+     * @param ordinal ordinal of the field
+     * @param low raw lower bound
+     * @param high raw upper bound
+     * @return false if no record the zone map covers can have such a value
+     */
+    public boolean mayContain(int ordinal, int low, int high) {
+        return this.bucketRecords > 0
+                && this.compare(ordinal, this.bucketMin[ordinal], high) <= 0
+                && this.compare(ordinal, this.bucketMax[ordinal], low) >= 0;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public int getBlockCount() {
+        return this.records.length;
+    }
+}